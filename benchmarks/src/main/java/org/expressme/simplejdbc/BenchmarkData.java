@@ -0,0 +1,163 @@
+package org.expressme.simplejdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.expressme.simplejdbc.benchmark.NarrowEntity;
+import org.expressme.simplejdbc.benchmark.Status;
+import org.expressme.simplejdbc.benchmark.TypedEntity;
+import org.expressme.simplejdbc.benchmark.WideEntity;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.h2.tools.SimpleResultSet;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Synthetic entities, in-memory result sets and embedded databases of 
+ * benchmarks.
+ * 
+ * @author Michael Liao
+ */
+class BenchmarkData {
+
+    static final long BASE_TIME = 1300000000000L;
+    static final int MAX_CONNECTIONS = 64;
+
+    static NarrowEntity narrow(long id) {
+        NarrowEntity e = new NarrowEntity();
+        e.setId(id);
+        e.setName("name-" + id);
+        e.setPasswd("passwd-" + id);
+        return e;
+    }
+
+    static WideEntity wide(long id) {
+        WideEntity e = new WideEntity();
+        e.setId(id);
+        e.setText1("text1-" + id);
+        e.setText2("text2-" + id);
+        e.setText3("text3-" + id);
+        e.setText4("text4-" + id);
+        e.setText5("text5-" + id);
+        e.setText6("text6-" + id);
+        e.setText7("text7-" + id);
+        e.setText8("text8-" + id);
+        e.setText9("text9-" + id);
+        e.setText10("text10-" + id);
+        e.setLong1(id * 11);
+        e.setLong2(id * 12);
+        e.setLong3(id * 13);
+        e.setLong4(id * 14);
+        e.setLong5(id * 15);
+        e.setInt1((int) id + 1);
+        e.setInt2((int) id + 2);
+        e.setInt3((int) id + 3);
+        e.setInt4((int) id + 4);
+        e.setInt5((int) id + 5);
+        e.setDouble1(id * 1.1);
+        e.setDouble2(id * 1.2);
+        e.setDouble3(id * 1.3);
+        e.setTime1(new Timestamp(BASE_TIME + id));
+        e.setTime2(new Timestamp(BASE_TIME + id * 2));
+        e.setTime3(new Timestamp(BASE_TIME + id * 3));
+        e.setFlag(id % 2==0);
+        return e;
+    }
+
+    static TypedEntity typed(long id) {
+        TypedEntity e = new TypedEntity();
+        e.setId(id);
+        e.setStatus(Status.values()[(int) (id % Status.values().length)]);
+        e.setCreatedAt(new Timestamp(BASE_TIME + id));
+        e.setUpdatedAt(new Timestamp(BASE_TIME + id * 2));
+        return e;
+    }
+
+    /**
+     * Create an in-memory result set of entities with all mapped columns. 
+     * The result set could be read again after beforeFirst().
+     */
+    static <T> SimpleResultSet resultSet(EntityOperation<T> op, List<T> entities) throws Exception {
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.setAutoClose(false);
+        List<PropertyMapping> pms = new ArrayList<PropertyMapping>(op.mappings.values());
+        for (PropertyMapping pm : pms) {
+            rs.addColumn(pm.columnName, Types.JAVA_OBJECT, 0, 0);
+        }
+        for (T entity : entities) {
+            Object[] row = new Object[pms.size()];
+            for (int i=0; i<row.length; i++) {
+                Object value = pms.get(i).accessor.get(entity);
+                row[i] = value instanceof Enum ? ((Enum<?>) value).name() : value;
+            }
+            rs.addRow(row);
+        }
+        return rs;
+    }
+
+    static DataSource dataSource(String name) {
+        JdbcConnectionPool pool = JdbcConnectionPool.create("jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        pool.setMaxConnections(MAX_CONNECTIONS);
+        return pool;
+    }
+
+    /**
+     * Create Db on a new embedded database.
+     */
+    static Db db(String name) {
+        return db(dataSource(name));
+    }
+
+    static Db db(DataSource dataSource) {
+        Db db = new Db();
+        db.setPackageName("org.expressme.simplejdbc.benchmark");
+        db.setJdbcTemplate(new JdbcTemplate(dataSource));
+        return db;
+    }
+
+    /**
+     * Drop and create table of entity by its mapped properties.
+     */
+    static void createTable(Db db, Class<?> clazz) throws SQLException {
+        EntityOperation<?> op = db.getEntityOperation(clazz);
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("create table ").append(op.tableName).append(" (");
+        for (PropertyMapping pm : op.mappings.values()) {
+            sb.append(pm.columnName).append(' ').append(sqlType(pm.getter.getReturnType()));
+            if (pm.id)
+                sb.append(" not null primary key");
+            sb.append(',');
+        }
+        sb.setCharAt(sb.length()-1, ')');
+        Connection conn = db.jdbcTemplate.getDataSource().getConnection();
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.execute("drop table if exists " + op.tableName);
+            stmt.execute(sb.toString());
+            stmt.close();
+        }
+        finally {
+            conn.close();
+        }
+    }
+
+    static String sqlType(Class<?> clazz) {
+        if (clazz==long.class || clazz==Long.class)
+            return "bigint";
+        if (clazz==int.class || clazz==Integer.class)
+            return "int";
+        if (clazz==double.class || clazz==Double.class)
+            return "double";
+        if (clazz==boolean.class || clazz==Boolean.class)
+            return "boolean";
+        if (clazz==Timestamp.class)
+            return "timestamp";
+        return "varchar(100)";
+    }
+}
@@ -0,0 +1,79 @@
+package org.expressme.simplejdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.expressme.simplejdbc.benchmark.NarrowEntity;
+import org.expressme.simplejdbc.benchmark.WideEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query an embedded in-memory database through Db.
+ * 
+ * @author Michael Liao
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DbQueryBenchmark {
+
+    static final int ROWS = 1000;
+
+    Db db;
+
+    @Setup
+    public void setUp() throws Exception {
+        db = BenchmarkData.db("query");
+        BenchmarkData.createTable(db, NarrowEntity.class);
+        BenchmarkData.createTable(db, WideEntity.class);
+        List<NarrowEntity> narrows = new ArrayList<NarrowEntity>();
+        List<WideEntity> wides = new ArrayList<WideEntity>();
+        for (int i=0; i<ROWS; i++) {
+            narrows.add(BenchmarkData.narrow(i));
+            wides.add(BenchmarkData.wide(i));
+        }
+        db.createAll(narrows);
+        db.createAll(wides);
+    }
+
+    @Benchmark
+    public Object getNarrowById() {
+        return db.getById(NarrowEntity.class, (long) ThreadLocalRandom.current().nextInt(ROWS));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object getNarrowByIdContended() {
+        return db.getById(NarrowEntity.class, (long) ThreadLocalRandom.current().nextInt(ROWS));
+    }
+
+    @Benchmark
+    public Object getWideById() {
+        return db.getById(WideEntity.class, (long) ThreadLocalRandom.current().nextInt(ROWS));
+    }
+
+    @Benchmark
+    public Object queryNarrowList() {
+        return db.queryForList("select * from NarrowEntity where id<?", 100L);
+    }
+
+    @Benchmark
+    public Object queryWideList() {
+        return db.queryForList("select * from WideEntity where id<?", 100L);
+    }
+}
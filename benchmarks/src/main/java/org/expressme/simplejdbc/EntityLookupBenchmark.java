@@ -0,0 +1,73 @@
+package org.expressme.simplejdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.expressme.simplejdbc.benchmark.NarrowEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolve entity operation by SQL and by class, by one thread and by 
+ * contended threads sharing the same Db.
+ * 
+ * @author Michael Liao
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityLookupBenchmark {
+
+    static final String[] SQLS = {
+        "select * from NarrowEntity where name=?",
+        "select * from WideEntity where text1=? order by id",
+        "select * from TypedEntity where status=? limit ?",
+        "select n.* from NarrowEntity n where n.id in (?, ?, ?)",
+    };
+
+    Db db;
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int n = 0;
+    }
+
+    @Setup
+    public void setUp() {
+        db = BenchmarkData.db("lookup");
+        db.warmUp();
+    }
+
+    @Benchmark
+    public Object bySql(Counter counter) {
+        return db.getEntityOperationBySQL(SQLS[counter.n++ & 3]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object bySqlContended(Counter counter) {
+        return db.getEntityOperationBySQL(SQLS[counter.n++ & 3]);
+    }
+
+    @Benchmark
+    public Object byClass() {
+        return db.getEntityOperation(NarrowEntity.class);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object byClassContended() {
+        return db.getEntityOperation(NarrowEntity.class);
+    }
+}
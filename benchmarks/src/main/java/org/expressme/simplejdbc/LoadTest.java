@@ -0,0 +1,256 @@
+package org.expressme.simplejdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.expressme.simplejdbc.benchmark.NarrowEntity;
+import org.expressme.simplejdbc.benchmark.WideEntity;
+
+/**
+ * End-to-end load test of Db against an embedded in-memory database. For 
+ * each thread count, a new Db is created on the same database so lazily 
+ * built state is initialized under contention, then all threads run a mix 
+ * of reads and writes for the given seconds. Throughput and p50/p99/p999 
+ * latencies of reads and writes are printed per thread count, which shows 
+ * how Db scales with cores.
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar org.expressme.simplejdbc.LoadTest threads=1,2,4,8 seconds=10 reads=0.9
+ * </pre>
+ * 
+ * @author Michael Liao
+ */
+public class LoadTest {
+
+    final int[] threads;
+    final int seconds;
+    final int warmUpSeconds;
+    final double readRatio;
+    final int rows;
+    final boolean wide;
+    final DataSource dataSource;
+    final AtomicLong nextId = new AtomicLong();
+
+    LoadTest(Map<String, String> options) {
+        String[] ts = option(options, "threads", "1,2,4,8").split(",");
+        this.threads = new int[ts.length];
+        for (int i=0; i<ts.length; i++) {
+            this.threads[i] = Integer.parseInt(ts[i].trim());
+        }
+        this.seconds = Integer.parseInt(option(options, "seconds", "10"));
+        this.warmUpSeconds = Integer.parseInt(option(options, "warmup", "2"));
+        this.readRatio = Double.parseDouble(option(options, "reads", "0.9"));
+        this.rows = Integer.parseInt(option(options, "rows", "10000"));
+        this.wide = "wide".equals(option(options, "entity", "narrow"));
+        if (readRatio < 0.0 || readRatio > 1.0)
+            throw new IllegalArgumentException("Read ratio must be between 0 and 1.");
+        this.dataSource = BenchmarkData.dataSource("load");
+    }
+
+    static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value==null ? defaultValue : value;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int n = arg.indexOf('=');
+            if (n==(-1))
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            options.put(arg.substring(0, n), arg.substring(n+1));
+        }
+        LoadTest test = new LoadTest(options);
+        if ( ! options.isEmpty())
+            throw new IllegalArgumentException("Unknown options: " + options.keySet());
+        test.run();
+    }
+
+    void run() throws Exception {
+        prepare();
+        System.out.println(String.format("entity=%s rows=%d reads=%.2f seconds=%d",
+                wide ? "wide" : "narrow", rows, readRatio, seconds));
+        System.out.println(String.format("%7s %6s %12s %10s %10s %10s %10s %7s",
+                "threads", "kind", "ops/s", "p50(us)", "p99(us)", "p999(us)", "max(us)", "errors"));
+        for (int n : threads) {
+            Db db = BenchmarkData.db(dataSource);
+            runWorkers(db, n, warmUpSeconds);
+            Worker[] workers = runWorkers(db, n, seconds);
+            print(n, "read", workers, true);
+            print(n, "write", workers, false);
+        }
+    }
+
+    void prepare() throws Exception {
+        Db db = BenchmarkData.db(dataSource);
+        Class<?> clazz = wide ? WideEntity.class : NarrowEntity.class;
+        BenchmarkData.createTable(db, clazz);
+        List<Object> entities = new ArrayList<Object>(1000);
+        for (int i=0; i<rows; i++) {
+            entities.add(newEntity(i));
+            if (entities.size()==1000) {
+                db.createAll(entities);
+                entities.clear();
+            }
+        }
+        if ( ! entities.isEmpty())
+            db.createAll(entities);
+        nextId.set(rows);
+    }
+
+    Object newEntity(long id) {
+        return wide ? BenchmarkData.wide(id) : BenchmarkData.narrow(id);
+    }
+
+    Worker[] runWorkers(Db db, int n, int seconds) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Worker[] workers = new Worker[n];
+        Thread[] ts = new Thread[n];
+        for (int i=0; i<n; i++) {
+            workers[i] = new Worker(db, start);
+            ts[i] = new Thread(workers[i], "LoadTest-" + i);
+            ts[i].start();
+        }
+        long deadline = System.nanoTime() + seconds * 1000000000L;
+        for (Worker worker : workers) {
+            worker.deadline = deadline;
+        }
+        start.countDown();
+        for (Thread t : ts) {
+            t.join();
+        }
+        return workers;
+    }
+
+    void print(int n, String kind, Worker[] workers, boolean read) {
+        int count = 0;
+        long errors = 0;
+        for (Worker worker : workers) {
+            count += read ? worker.reads.size : worker.writes.size;
+            errors += read ? worker.readErrors : worker.writeErrors;
+        }
+        long[] all = new long[count];
+        int pos = 0;
+        for (Worker worker : workers) {
+            LongBuffer buffer = read ? worker.reads : worker.writes;
+            System.arraycopy(buffer.values, 0, all, pos, buffer.size);
+            pos += buffer.size;
+        }
+        Arrays.sort(all);
+        System.out.println(String.format("%7d %6s %12.0f %10.1f %10.1f %10.1f %10.1f %7d",
+                n, kind, (double) count / seconds,
+                percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999),
+                all.length==0 ? 0.0 : all[all.length-1] / 1000.0, errors));
+    }
+
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length==0)
+            return 0.0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    class Worker implements Runnable {
+
+        final Db db;
+        final LongBuffer reads = new LongBuffer();
+        final LongBuffer writes = new LongBuffer();
+        final CountDownLatch start;
+        long deadline;
+        long readErrors = 0;
+        long writeErrors = 0;
+
+        Worker(Db db, CountDownLatch start) {
+            this.db = db;
+            this.start = start;
+        }
+
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                start.await();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            Class<?> clazz = wide ? WideEntity.class : NarrowEntity.class;
+            String property = wide ? "text1" : "name";
+            while (System.nanoTime() < deadline) {
+                boolean read = random.nextDouble() < readRatio;
+                int op = random.nextInt(4);
+                long id = random.nextInt(rows);
+                long t0 = System.nanoTime();
+                try {
+                    if (read)
+                        read(clazz, op, id);
+                    else
+                        write(clazz, property, op, id);
+                }
+                catch (RuntimeException e) {
+                    if (read)
+                        readErrors++;
+                    else
+                        writeErrors++;
+                }
+                long t = System.nanoTime() - t0;
+                if (read)
+                    reads.add(t);
+                else
+                    writes.add(t);
+            }
+        }
+
+        void read(Class<?> clazz, int op, long id) {
+            switch (op) {
+            case 0:
+            case 1:
+                db.getById(clazz, id);
+                break;
+            case 2:
+                db.queryForList("select * from " + clazz.getSimpleName() + " where id>=? and id<?", id, id + 20);
+                break;
+            default:
+                List<Long> ids = new ArrayList<Long>(10);
+                for (int i=0; i<10; i++) {
+                    ids.add((id + i * 97) % rows);
+                }
+                db.getByIds(clazz, ids);
+            }
+        }
+
+        void write(Class<?> clazz, String property, int op, long id) {
+            if (op==0) {
+                db.create(newEntity(nextId.getAndIncrement()));
+                return;
+            }
+            Object entity = newEntity(id);
+            if (op==1)
+                db.updateEntity(entity);
+            else
+                db.updateProperties(entity, property);
+        }
+    }
+
+    /**
+     * Growable buffer of latencies owned by one thread.
+     */
+    static class LongBuffer {
+
+        long[] values = new long[4096];
+        int size = 0;
+
+        void add(long value) {
+            if (size==values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.expressme.simplejdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.expressme.simplejdbc.benchmark.NarrowEntity;
+import org.expressme.simplejdbc.benchmark.TypedEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Get and set properties by PropertyMapping.
+ * 
+ * @author Michael Liao
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyAccessBenchmark {
+
+    NarrowEntity narrow;
+    TypedEntity typed;
+    PropertyMapping id;
+    PropertyMapping name;
+    PropertyMapping createdAt;
+    long n = 0;
+
+    @Setup
+    public void setUp() {
+        EntityOperation<NarrowEntity> op = new EntityOperation<NarrowEntity>(NarrowEntity.class);
+        narrow = BenchmarkData.narrow(1);
+        typed = BenchmarkData.typed(1);
+        id = op.mappings.get("id");
+        name = op.mappings.get("name");
+        createdAt = new EntityOperation<TypedEntity>(TypedEntity.class).mappings.get("createdAt");
+    }
+
+    @Benchmark
+    public Object getLong() throws Exception {
+        return id.get(narrow);
+    }
+
+    @Benchmark
+    public Object getString() throws Exception {
+        return name.get(narrow);
+    }
+
+    @Benchmark
+    public Object getTimestamp() throws Exception {
+        return createdAt.get(typed);
+    }
+
+    @Benchmark
+    public void setLong() throws Exception {
+        id.set(narrow, n++);
+    }
+
+    @Benchmark
+    public void setLongUnboxed() throws Exception {
+        id.accessor.setLong(narrow, n++);
+    }
+
+    @Benchmark
+    public void setString() throws Exception {
+        name.set(narrow, "name");
+    }
+}
@@ -0,0 +1,92 @@
+package org.expressme.simplejdbc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.expressme.simplejdbc.benchmark.NarrowEntity;
+import org.expressme.simplejdbc.benchmark.TypedEntity;
+import org.expressme.simplejdbc.benchmark.WideEntity;
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * Map rows of in-memory result sets by EntityOperation.createRowMapper, so 
+ * only the mapping cost is measured.
+ * 
+ * @author Michael Liao
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+
+    @Param({ "100" })
+    int rows;
+
+    EntityOperation<NarrowEntity> narrowOp;
+    EntityOperation<WideEntity> wideOp;
+    EntityOperation<TypedEntity> typedOp;
+    SimpleResultSet narrowResultSet;
+    SimpleResultSet wideResultSet;
+    SimpleResultSet typedResultSet;
+
+    @Setup
+    public void setUp() throws Exception {
+        narrowOp = new EntityOperation<NarrowEntity>(NarrowEntity.class);
+        wideOp = new EntityOperation<WideEntity>(WideEntity.class);
+        typedOp = new EntityOperation<TypedEntity>(TypedEntity.class);
+        List<NarrowEntity> narrows = new ArrayList<NarrowEntity>();
+        List<WideEntity> wides = new ArrayList<WideEntity>();
+        List<TypedEntity> typeds = new ArrayList<TypedEntity>();
+        for (int i=0; i<rows; i++) {
+            narrows.add(BenchmarkData.narrow(i));
+            wides.add(BenchmarkData.wide(i));
+            typeds.add(BenchmarkData.typed(i));
+        }
+        narrowResultSet = BenchmarkData.resultSet(narrowOp, narrows);
+        wideResultSet = BenchmarkData.resultSet(wideOp, wides);
+        typedResultSet = BenchmarkData.resultSet(typedOp, typeds);
+    }
+
+    @Benchmark
+    public List<NarrowEntity> mapNarrow() throws SQLException {
+        return map(narrowOp, narrowResultSet);
+    }
+
+    @Benchmark
+    public List<WideEntity> mapWide() throws SQLException {
+        return map(wideOp, wideResultSet);
+    }
+
+    @Benchmark
+    public List<TypedEntity> mapEnumAndTimestamp() throws SQLException {
+        return map(typedOp, typedResultSet);
+    }
+
+    <T> List<T> map(EntityOperation<T> op, SimpleResultSet rs) throws SQLException {
+        rs.beforeFirst();
+        RowMapper<T> mapper = op.createRowMapper();
+        List<T> list = new ArrayList<T>(rows);
+        int n = 0;
+        while (rs.next()) {
+            list.add(mapper.mapRow(rs, n++));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,68 @@
+package org.expressme.simplejdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.expressme.simplejdbc.benchmark.NarrowEntity;
+import org.expressme.simplejdbc.benchmark.WideEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Build SQL and parameters of insert and update statements.
+ * 
+ * @author Michael Liao
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlBuildBenchmark {
+
+    EntityOperation<NarrowEntity> narrowOp;
+    EntityOperation<WideEntity> wideOp;
+    NarrowEntity narrow;
+    WideEntity wide;
+
+    @Setup
+    public void setUp() {
+        narrowOp = new EntityOperation<NarrowEntity>(NarrowEntity.class);
+        wideOp = new EntityOperation<WideEntity>(WideEntity.class);
+        narrow = BenchmarkData.narrow(1);
+        wide = BenchmarkData.wide(1);
+    }
+
+    @Benchmark
+    public SQLOperation insertNarrow() throws Exception {
+        return narrowOp.insertEntity(narrow);
+    }
+
+    @Benchmark
+    public SQLOperation insertWide() throws Exception {
+        return wideOp.insertEntity(wide);
+    }
+
+    @Benchmark
+    public SQLOperation updateNarrow() throws Exception {
+        return narrowOp.updateEntity(narrow);
+    }
+
+    @Benchmark
+    public SQLOperation updateWide() throws Exception {
+        return wideOp.updateEntity(wide);
+    }
+
+    @Benchmark
+    public SQLOperation updatePropertiesWide() throws Exception {
+        return wideOp.updateProperties(wide, "text1", "long1");
+    }
+}
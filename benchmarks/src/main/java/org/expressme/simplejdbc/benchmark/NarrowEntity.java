@@ -0,0 +1,42 @@
+package org.expressme.simplejdbc.benchmark;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Entity of 3 columns.
+ * 
+ * @author Michael Liao
+ */
+@Entity
+public class NarrowEntity {
+
+    long id;
+    String name;
+    String passwd;
+
+    @Id
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getPasswd() {
+        return passwd;
+    }
+
+    public void setPasswd(String passwd) {
+        this.passwd = passwd;
+    }
+}
@@ -0,0 +1,12 @@
+package org.expressme.simplejdbc.benchmark;
+
+/**
+ * Status stored as enum name.
+ * 
+ * @author Michael Liao
+ */
+public enum Status {
+
+    ACTIVE, LOCKED, DELETED
+
+}
@@ -0,0 +1,269 @@
+package org.expressme.simplejdbc.benchmark;
+
+import java.sql.Timestamp;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Entity of 28 columns.
+ * 
+ * @author Michael Liao
+ */
+@Entity
+public class WideEntity {
+
+    long id;
+    String text1;
+    String text2;
+    String text3;
+    String text4;
+    String text5;
+    String text6;
+    String text7;
+    String text8;
+    String text9;
+    String text10;
+    long long1;
+    long long2;
+    long long3;
+    long long4;
+    long long5;
+    int int1;
+    int int2;
+    int int3;
+    int int4;
+    int int5;
+    double double1;
+    double double2;
+    double double3;
+    Timestamp time1;
+    Timestamp time2;
+    Timestamp time3;
+    boolean flag;
+
+    @Id
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getText1() {
+        return text1;
+    }
+
+    public void setText1(String text1) {
+        this.text1 = text1;
+    }
+
+    public String getText2() {
+        return text2;
+    }
+
+    public void setText2(String text2) {
+        this.text2 = text2;
+    }
+
+    public String getText3() {
+        return text3;
+    }
+
+    public void setText3(String text3) {
+        this.text3 = text3;
+    }
+
+    public String getText4() {
+        return text4;
+    }
+
+    public void setText4(String text4) {
+        this.text4 = text4;
+    }
+
+    public String getText5() {
+        return text5;
+    }
+
+    public void setText5(String text5) {
+        this.text5 = text5;
+    }
+
+    public String getText6() {
+        return text6;
+    }
+
+    public void setText6(String text6) {
+        this.text6 = text6;
+    }
+
+    public String getText7() {
+        return text7;
+    }
+
+    public void setText7(String text7) {
+        this.text7 = text7;
+    }
+
+    public String getText8() {
+        return text8;
+    }
+
+    public void setText8(String text8) {
+        this.text8 = text8;
+    }
+
+    public String getText9() {
+        return text9;
+    }
+
+    public void setText9(String text9) {
+        this.text9 = text9;
+    }
+
+    public String getText10() {
+        return text10;
+    }
+
+    public void setText10(String text10) {
+        this.text10 = text10;
+    }
+
+    public long getLong1() {
+        return long1;
+    }
+
+    public void setLong1(long long1) {
+        this.long1 = long1;
+    }
+
+    public long getLong2() {
+        return long2;
+    }
+
+    public void setLong2(long long2) {
+        this.long2 = long2;
+    }
+
+    public long getLong3() {
+        return long3;
+    }
+
+    public void setLong3(long long3) {
+        this.long3 = long3;
+    }
+
+    public long getLong4() {
+        return long4;
+    }
+
+    public void setLong4(long long4) {
+        this.long4 = long4;
+    }
+
+    public long getLong5() {
+        return long5;
+    }
+
+    public void setLong5(long long5) {
+        this.long5 = long5;
+    }
+
+    public int getInt1() {
+        return int1;
+    }
+
+    public void setInt1(int int1) {
+        this.int1 = int1;
+    }
+
+    public int getInt2() {
+        return int2;
+    }
+
+    public void setInt2(int int2) {
+        this.int2 = int2;
+    }
+
+    public int getInt3() {
+        return int3;
+    }
+
+    public void setInt3(int int3) {
+        this.int3 = int3;
+    }
+
+    public int getInt4() {
+        return int4;
+    }
+
+    public void setInt4(int int4) {
+        this.int4 = int4;
+    }
+
+    public int getInt5() {
+        return int5;
+    }
+
+    public void setInt5(int int5) {
+        this.int5 = int5;
+    }
+
+    public double getDouble1() {
+        return double1;
+    }
+
+    public void setDouble1(double double1) {
+        this.double1 = double1;
+    }
+
+    public double getDouble2() {
+        return double2;
+    }
+
+    public void setDouble2(double double2) {
+        this.double2 = double2;
+    }
+
+    public double getDouble3() {
+        return double3;
+    }
+
+    public void setDouble3(double double3) {
+        this.double3 = double3;
+    }
+
+    public Timestamp getTime1() {
+        return time1;
+    }
+
+    public void setTime1(Timestamp time1) {
+        this.time1 = time1;
+    }
+
+    public Timestamp getTime2() {
+        return time2;
+    }
+
+    public void setTime2(Timestamp time2) {
+        this.time2 = time2;
+    }
+
+    public Timestamp getTime3() {
+        return time3;
+    }
+
+    public void setTime3(Timestamp time3) {
+        this.time3 = time3;
+    }
+
+    public boolean isFlag() {
+        return flag;
+    }
+
+    public void setFlag(boolean flag) {
+        this.flag = flag;
+    }
+}
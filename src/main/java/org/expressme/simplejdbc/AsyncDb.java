@@ -0,0 +1,488 @@
+package org.expressme.simplejdbc;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade of Db. Each operation runs on executor and returns 
+ * a CompletableFuture, and at most maxConcurrency operations run at the 
+ * same time so they could not exhaust the connection pool. For example:
+ * <code>
+ * AsyncDb async = new AsyncDb(db, 10);
+ * CompletableFuture&lt;User&gt; user = async.getById(User.class, 123L);
+ * CompletableFuture&lt;Long&gt; count = async.queryForLong("select count(*) from Job");
+ * </code>
+ * Cancel of a returned future cancels the running statement if Db is 
+ * configured with CancellableJdbcTemplate. Operations do not join the 
+ * transaction of the calling thread, but share its read-your-writes 
+ * window, so reads after a write of either side go to the primary.
+ * 
+ * @author Michael Liao
+ */
+public class AsyncDb {
+
+    final Db db;
+    final Executor executor;
+    final Semaphore semaphore;
+    final ExecutorService defaultExecutor;
+    // tasks waiting for a permit, which do not occupy executor threads:
+    final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * Create AsyncDb running on virtual threads if runtime supports, or on a 
+     * fixed thread pool of maxConcurrency threads.
+     * 
+     * @param db The Db instance.
+     * @param maxConcurrency Max number of operations running at the same time.
+     */
+    public AsyncDb(Db db, int maxConcurrency) {
+        this(db, maxConcurrency, null);
+    }
+
+    /**
+     * Create AsyncDb running on executor.
+     * 
+     * @param db The Db instance.
+     * @param maxConcurrency Max number of operations running at the same time.
+     * @param executor Executor of operations, or null to use the default.
+     */
+    public AsyncDb(Db db, int maxConcurrency, Executor executor) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("Max concurrency must be positive.");
+        this.db = db;
+        this.semaphore = new Semaphore(maxConcurrency);
+        this.defaultExecutor = executor==null ? createDefaultExecutor(maxConcurrency) : null;
+        this.executor = executor==null ? this.defaultExecutor : executor;
+    }
+
+    static ExecutorService createDefaultExecutor(int threads) {
+        try {
+            // Java 21 or later:
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (Exception e) {
+            // virtual threads not supported
+        }
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            final AtomicInteger n = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simplejdbc-async-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Shutdown the default executor. Executor passed by caller is not 
+     * shutdown.
+     */
+    public void shutdown() {
+        if (defaultExecutor!=null)
+            defaultExecutor.shutdown();
+    }
+
+    /**
+     * Execute update asynchronously. See {@link Db#executeUpdate(String, Object...)}.
+     */
+    public CompletableFuture<Integer> executeUpdate(final String sql, final Object... params) {
+        return supply(new Supplier<Integer>() {
+            public Integer get() {
+                return db.executeUpdate(sql, params);
+            }
+        });
+    }
+
+    /**
+     * Delete entity asynchronously. See {@link Db#deleteEntity(Object)}.
+     */
+    public CompletableFuture<Void> deleteEntity(final Object entity) {
+        return supply(new Supplier<Void>() {
+            public Void get() {
+                db.deleteEntity(entity);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Update entity asynchronously. See {@link Db#updateEntity(Object)}.
+     */
+    public CompletableFuture<Void> updateEntity(final Object entity) {
+        return supply(new Supplier<Void>() {
+            public Void get() {
+                db.updateEntity(entity);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Update properties of entity asynchronously. See {@link Db#updateProperties(Object, String...)}.
+     */
+    public CompletableFuture<Void> updateProperties(final Object entity, final String... properties) {
+        return supply(new Supplier<Void>() {
+            public Void get() {
+                db.updateProperties(entity, properties);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Query for long result asynchronously. See {@link Db#queryForLong(String, Object...)}.
+     */
+    public CompletableFuture<Long> queryForLong(final String sql, final Object... args) {
+        return supply(new Supplier<Long>() {
+            public Long get() {
+                return db.queryForLong(sql, args);
+            }
+        });
+    }
+
+    /**
+     * Query for int result asynchronously. See {@link Db#queryForInt(String, Object...)}.
+     */
+    public CompletableFuture<Integer> queryForInt(final String sql, final Object... args) {
+        return supply(new Supplier<Integer>() {
+            public Integer get() {
+                return db.queryForInt(sql, args);
+            }
+        });
+    }
+
+    /**
+     * Query for long array asynchronously. See {@link Db#queryForLongArray(String, Object...)}.
+     */
+    public CompletableFuture<long[]> queryForLongArray(final String sql, final Object... args) {
+        return supply(new Supplier<long[]>() {
+            public long[] get() {
+                return db.queryForLongArray(sql, args);
+            }
+        });
+    }
+
+    /**
+     * Query for int array asynchronously. See {@link Db#queryForIntArray(String, Object...)}.
+     */
+    public CompletableFuture<int[]> queryForIntArray(final String sql, final Object... args) {
+        return supply(new Supplier<int[]>() {
+            public int[] get() {
+                return db.queryForIntArray(sql, args);
+            }
+        });
+    }
+
+    /**
+     * Query and pass each long value to callback asynchronously. See {@link Db#queryForEachLong(String, LongConsumer, Object...)}.
+     */
+    public CompletableFuture<Void> queryForEachLong(final String sql, final LongConsumer callback, final Object... args) {
+        return supply(new Supplier<Void>() {
+            public Void get() {
+                db.queryForEachLong(sql, callback, args);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Query for one single object asynchronously. See {@link Db#queryForObject(String, Object...)}.
+     */
+    public <T> CompletableFuture<T> queryForObject(final String sql, final Object... args) {
+        return supply(new Supplier<T>() {
+            public T get() {
+                return db.<T>queryForObject(sql, args);
+            }
+        });
+    }
+
+    /**
+     * Query for list asynchronously. See {@link Db#queryForList(String, Object...)}.
+     */
+    public <T> CompletableFuture<List<T>> queryForList(final String sql, final Object... params) {
+        return supply(new Supplier<List<T>>() {
+            public List<T> get() {
+                return db.<T>queryForList(sql, params);
+            }
+        });
+    }
+
+    /**
+     * Query and pass each entity to callback asynchronously. See {@link Db#queryForEach(String, Consumer, Object...)}.
+     */
+    public <T> CompletableFuture<Void> queryForEach(final String sql, final Consumer<T> callback, final Object... params) {
+        return supply(new Supplier<Void>() {
+            public Void get() {
+                db.queryForEach(sql, callback, params);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Query for limited list asynchronously. See {@link Db#queryForLimitedList(String, int, int, Object...)}.
+     */
+    public <T> CompletableFuture<List<T>> queryForLimitedList(final String sql, final int first, final int max, final Object... args) {
+        return supply(new Supplier<List<T>>() {
+            public List<T> get() {
+                return db.<T>queryForLimitedList(sql, first, max, args);
+            }
+        });
+    }
+
+    /**
+     * Query for page asynchronously. See {@link Db#queryForPage(Class, Object, int)}.
+     */
+    public <T> CompletableFuture<Page<T>> queryForPage(final Class<T> clazz, final Object after, final int max) {
+        return supply(new Supplier<Page<T>>() {
+            public Page<T> get() {
+                return db.queryForPage(clazz, after, max);
+            }
+        });
+    }
+
+    /**
+     * Query for page asynchronously. See {@link Db#queryForPage(Class, String, String, Object, int, Object...)}.
+     */
+    public <T> CompletableFuture<Page<T>> queryForPage(final Class<T> clazz, final String where, final String orderBy, final Object after, final int max, final Object... args) {
+        return supply(new Supplier<Page<T>>() {
+            public Page<T> get() {
+                return db.queryForPage(clazz, where, orderBy, after, max, args);
+            }
+        });
+    }
+
+    /**
+     * Get entity by its id asynchronously. See {@link Db#getById(Class, Object)}.
+     */
+    public <T> CompletableFuture<T> getById(final Class<T> clazz, final Object idValue) {
+        return supply(new Supplier<T>() {
+            public T get() {
+                return db.getById(clazz, idValue);
+            }
+        });
+    }
+
+    /**
+     * Get entities by ids asynchronously. See {@link Db#getByIds(Class, Collection)}.
+     */
+    public <K, T> CompletableFuture<Map<K, T>> getByIds(final Class<T> clazz, final Collection<K> idValues) {
+        return supply(new Supplier<Map<K, T>>() {
+            public Map<K, T> get() {
+                return db.getByIds(clazz, idValues);
+            }
+        });
+    }
+
+    /**
+     * Get projection of entity by its id asynchronously. See {@link Db#getProjectionById(Class, Class, Object)}.
+     */
+    public <P> CompletableFuture<P> getProjectionById(final Class<?> clazz, final Class<P> projectionClass, final Object idValue) {
+        return supply(new Supplier<P>() {
+            public P get() {
+                return db.getProjectionById(clazz, projectionClass, idValue);
+            }
+        });
+    }
+
+    /**
+     * Query for projections asynchronously. See {@link Db#queryForProjection(Class, Class, String, Object...)}.
+     */
+    public <P> CompletableFuture<List<P>> queryForProjection(final Class<?> clazz, final Class<P> projectionClass, final String where, final Object... args) {
+        return supply(new Supplier<List<P>>() {
+            public List<P> get() {
+                return db.queryForProjection(clazz, projectionClass, where, args);
+            }
+        });
+    }
+
+    /**
+     * Query for partial entities asynchronously. See {@link Db#queryForProperties(Class, String[], String, Object...)}.
+     */
+    public <T> CompletableFuture<List<T>> queryForProperties(final Class<T> clazz, final String[] properties, final String where, final Object... args) {
+        return supply(new Supplier<List<T>>() {
+            public List<T> get() {
+                return db.queryForProperties(clazz, properties, where, args);
+            }
+        });
+    }
+
+    /**
+     * Create entity asynchronously. See {@link Db#create(Object)}.
+     */
+    public CompletableFuture<Void> create(final Object entity) {
+        return supply(new Supplier<Void>() {
+            public Void get() {
+                db.create(entity);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Create entities asynchronously. See {@link Db#createAll(Collection)}.
+     */
+    public CompletableFuture<int[]> createAll(final Collection<?> entities) {
+        return supply(new Supplier<int[]>() {
+            public int[] get() {
+                return db.createAll(entities);
+            }
+        });
+    }
+
+    /**
+     * Update entities asynchronously. See {@link Db#updateEntities(Collection)}.
+     */
+    public CompletableFuture<int[]> updateEntities(final Collection<?> entities) {
+        return supply(new Supplier<int[]>() {
+            public int[] get() {
+                return db.updateEntities(entities);
+            }
+        });
+    }
+
+    /**
+     * Save entity asynchronously. See {@link Db#save(Object)}.
+     */
+    public CompletableFuture<Void> save(final Object entity) {
+        return supply(new Supplier<Void>() {
+            public Void get() {
+                db.save(entity);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Save entities asynchronously. See {@link Db#saveAll(Collection)}.
+     */
+    public CompletableFuture<int[]> saveAll(final Collection<?> entities) {
+        return supply(new Supplier<int[]>() {
+            public int[] get() {
+                return db.saveAll(entities);
+            }
+        });
+    }
+
+    /**
+     * Delete entity by id asynchronously. See {@link Db#deleteById(Class, Object)}.
+     */
+    public CompletableFuture<Void> deleteById(final Class<?> clazz, final Object idValue) {
+        return supply(new Supplier<Void>() {
+            public Void get() {
+                db.deleteById(clazz, idValue);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Delete entities asynchronously. See {@link Db#deleteEntities(Collection)}.
+     */
+    public CompletableFuture<Integer> deleteEntities(final Collection<?> entities) {
+        return supply(new Supplier<Integer>() {
+            public Integer get() {
+                return db.deleteEntities(entities);
+            }
+        });
+    }
+
+    /**
+     * Delete entities by ids asynchronously. See {@link Db#deleteByIds(Class, Collection)}.
+     */
+    public CompletableFuture<Integer> deleteByIds(final Class<?> clazz, final Collection<?> idValues) {
+        return supply(new Supplier<Integer>() {
+            public Integer get() {
+                return db.deleteByIds(clazz, idValues);
+            }
+        });
+    }
+
+    /**
+     * Run task on executor when a permit is available. The task waits in 
+     * queue without a thread until a running task releases its permit.
+     */
+    <T> CompletableFuture<T> supply(final Supplier<T> task) {
+        final StatementTracker tracker = new StatementTracker();
+        // last write time of calling thread, updated by writes of task:
+        final AtomicLong lastWriteTime = db.readYourWritesMillis > 0 ? db.lastWriteTime() : null;
+        final CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled)
+                    tracker.cancel();
+                return cancelled;
+            }
+        };
+        final Runnable work = new Runnable() {
+            public void run() {
+                StatementTracker.current.set(tracker);
+                if (lastWriteTime!=null)
+                    db.lastWriteTime.set(lastWriteTime);
+                try {
+                    if ( ! future.isDone())
+                        future.complete(task.get());
+                }
+                catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+                finally {
+                    StatementTracker.current.remove();
+                    db.lastWriteTime.remove();
+                    semaphore.release();
+                    dispatch();
+                }
+            }
+        };
+        // run by dispatch with a permit acquired:
+        pending.add(new Runnable() {
+            public void run() {
+                if (future.isDone()) {
+                    semaphore.release();
+                    return;
+                }
+                try {
+                    executor.execute(work);
+                }
+                catch (RejectedExecutionException e) {
+                    semaphore.release();
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        dispatch();
+        return future;
+    }
+
+    /**
+     * Send pending tasks to executor while permits are available. Called 
+     * after a task is queued and after a permit is released, so no task 
+     * waits while a permit is free.
+     */
+    void dispatch() {
+        while ( ! pending.isEmpty() && semaphore.tryAcquire()) {
+            Runnable r = pending.poll();
+            if (r==null)
+                semaphore.release();
+            else
+                r.run();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.expressme.simplejdbc;
+
+/**
+ * Snapshot of cache statistics.
+ *
+ * @author Michael Liao
+ */
+public class CacheStats {
+
+    final long hits;
+    final long misses;
+    final long evictions;
+    final int size;
+
+    CacheStats(long hits, long misses, long evictions, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get hit ratio, or 0 if no request.
+     *
+     * @return Ratio of hits to all requests.
+     */
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return requests==0 ? 0.0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats(hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + ")";
+    }
+}
@@ -0,0 +1,33 @@
+package org.expressme.simplejdbc;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * JdbcTemplate whose statements could be cancelled by cancel of the 
+ * futures of AsyncDb. Use it instead of JdbcTemplate to configure Db.
+ * 
+ * @author Michael Liao
+ */
+public class CancellableJdbcTemplate extends JdbcTemplate {
+
+    public CancellableJdbcTemplate() {
+    }
+
+    public CancellableJdbcTemplate(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        super.applyStatementSettings(stmt);
+        StatementTracker tracker = StatementTracker.current.get();
+        if (tracker!=null)
+            tracker.register(stmt);
+    }
+
+}
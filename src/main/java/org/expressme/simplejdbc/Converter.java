@@ -0,0 +1,35 @@
+package org.expressme.simplejdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Conversion between property values and column values. A converter is 
+ * resolved once per property when entity is first used, so it should be 
+ * registered to Db before that.
+ * 
+ * @author Michael Liao
+ *
+ * @param <T> Property type.
+ */
+public interface Converter<T> {
+
+    /**
+     * Convert property value to SQL parameter value.
+     * 
+     * @param value Property value which is not null.
+     * @return SQL parameter value.
+     */
+    Object toColumn(T value);
+
+    /**
+     * Read column value and convert it to property value.
+     * 
+     * @param rs Result set of current row.
+     * @param index Column index which starts from 1.
+     * @return Property value, or null if column value is null.
+     * @throws SQLException If read column failed.
+     */
+    T fromColumn(ResultSet rs, int index) throws SQLException;
+
+}
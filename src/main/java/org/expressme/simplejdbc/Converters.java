@@ -0,0 +1,170 @@
+package org.expressme.simplejdbc;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+/**
+ * Built-in converters, and resolution of converter of property.
+ * 
+ * @author Michael Liao
+ */
+class Converters {
+
+    static final Map<Class<?>, Converter<?>> BUILT_IN = new HashMap<Class<?>, Converter<?>>();
+
+    static {
+        BUILT_IN.put(java.util.Date.class, new Converter<java.util.Date>() {
+            public Object toColumn(java.util.Date value) {
+                return new Timestamp(value.getTime());
+            }
+            public java.util.Date fromColumn(ResultSet rs, int index) throws SQLException {
+                Timestamp t = rs.getTimestamp(index);
+                return t==null ? null : new java.util.Date(t.getTime());
+            }
+        });
+        BUILT_IN.put(LocalDateTime.class, new Converter<LocalDateTime>() {
+            public Object toColumn(LocalDateTime value) {
+                return Timestamp.valueOf(value);
+            }
+            public LocalDateTime fromColumn(ResultSet rs, int index) throws SQLException {
+                Timestamp t = rs.getTimestamp(index);
+                return t==null ? null : t.toLocalDateTime();
+            }
+        });
+        BUILT_IN.put(LocalDate.class, new Converter<LocalDate>() {
+            public Object toColumn(LocalDate value) {
+                return Date.valueOf(value);
+            }
+            public LocalDate fromColumn(ResultSet rs, int index) throws SQLException {
+                Date d = rs.getDate(index);
+                return d==null ? null : d.toLocalDate();
+            }
+        });
+        BUILT_IN.put(LocalTime.class, new Converter<LocalTime>() {
+            public Object toColumn(LocalTime value) {
+                return Time.valueOf(value);
+            }
+            public LocalTime fromColumn(ResultSet rs, int index) throws SQLException {
+                Time t = rs.getTime(index);
+                return t==null ? null : t.toLocalTime();
+            }
+        });
+        BUILT_IN.put(Instant.class, new Converter<Instant>() {
+            public Object toColumn(Instant value) {
+                return Timestamp.from(value);
+            }
+            public Instant fromColumn(ResultSet rs, int index) throws SQLException {
+                Timestamp t = rs.getTimestamp(index);
+                return t==null ? null : t.toInstant();
+            }
+        });
+        BUILT_IN.put(BigDecimal.class, new Converter<BigDecimal>() {
+            public Object toColumn(BigDecimal value) {
+                return value;
+            }
+            public BigDecimal fromColumn(ResultSet rs, int index) throws SQLException {
+                return rs.getBigDecimal(index);
+            }
+        });
+        BUILT_IN.put(byte[].class, new Converter<byte[]>() {
+            public Object toColumn(byte[] value) {
+                return value;
+            }
+            public byte[] fromColumn(ResultSet rs, int index) throws SQLException {
+                return rs.getBytes(index);
+            }
+        });
+    }
+
+    /**
+     * Get converter of property by registered converters, then @Enumerated 
+     * or name of enum, then built-in converters. Return null if property is 
+     * read by typed getter of ResultSet without conversion.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Converter<Object> forProperty(Method getter, Map<Class<?>, Converter<?>> converters) {
+        Class<?> type = getter.getReturnType();
+        Converter<?> converter = converters.get(type);
+        if (converter==null && type.isEnum()) {
+            Enumerated enumerated = getter.getAnnotation(Enumerated.class);
+            if (enumerated!=null && enumerated.value()==EnumType.ORDINAL)
+                converter = new EnumOrdinalConverter(type);
+            else
+                converter = new EnumNameConverter(type);
+        }
+        if (converter==null)
+            converter = BUILT_IN.get(type);
+        return (Converter<Object>) converter;
+    }
+
+    /**
+     * Convert enum to and from its name by lookup table.
+     */
+    static class EnumNameConverter<E extends Enum<E>> implements Converter<E> {
+
+        final Class<E> enumClass;
+        final Map<String, E> constants = new HashMap<String, E>();
+
+        EnumNameConverter(Class<E> enumClass) {
+            this.enumClass = enumClass;
+            for (E e : enumClass.getEnumConstants()) {
+                constants.put(e.name(), e);
+            }
+        }
+
+        public Object toColumn(E value) {
+            return value.name();
+        }
+
+        public E fromColumn(ResultSet rs, int index) throws SQLException {
+            String s = rs.getString(index);
+            if (s==null)
+                return null;
+            E e = constants.get(s);
+            if (e==null)
+                throw new DbException("Unknown value " + s + " of enum " + enumClass.getName() + ".");
+            return e;
+        }
+    }
+
+    /**
+     * Convert enum to and from its ordinal by lookup table.
+     */
+    static class EnumOrdinalConverter<E extends Enum<E>> implements Converter<E> {
+
+        final Class<E> enumClass;
+        final E[] constants;
+
+        EnumOrdinalConverter(Class<E> enumClass) {
+            this.enumClass = enumClass;
+            this.constants = enumClass.getEnumConstants();
+        }
+
+        public Object toColumn(E value) {
+            return value.ordinal();
+        }
+
+        public E fromColumn(ResultSet rs, int index) throws SQLException {
+            int n = rs.getInt(index);
+            if (rs.wasNull())
+                return null;
+            if (n < 0 || n >= constants.length)
+                throw new DbException("Unknown ordinal " + n + " of enum " + enumClass.getName() + ".");
+            return constants[n];
+        }
+    }
+}
@@ -1,19 +1,59 @@
 package org.expressme.simplejdbc;
 
+import java.io.IOException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.Entity;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
 
 /**
  * Database interface.
@@ -26,12 +66,388 @@ public class Db {
 
     JdbcTemplate jdbcTemplate;
 
+    volatile OperationListener operationListener = null;
+    long slowQueryMillis = 0;
+
+    /**
+     * Set listener of completed operations, for example, DbMetrics. Default 
+     * to null.
+     * 
+     * @param operationListener Listener of operations.
+     */
+    public void setOperationListener(OperationListener operationListener) {
+        this.operationListener = operationListener;
+    }
+
+    /**
+     * Set threshold of slow query log. Operations which take longer are 
+     * logged as warning with SQL and parameters. Default to 0 which is 
+     * disabled.
+     * 
+     * @param slowQueryMillis Threshold in milliseconds.
+     */
+    public void setSlowQueryMillis(long slowQueryMillis) {
+        this.slowQueryMillis = slowQueryMillis;
+    }
+
+    /**
+     * Start timing of operation, or return null if no listener and slow 
+     * query log is disabled.
+     */
+    OperationProbe probe(String operation, EntityOperation<?> op, String sql, Object[] params) {
+        if (operationListener==null && slowQueryMillis <= 0)
+            return null;
+        return new OperationProbe(op==null ? getSqlInfo(sql).tableName : op.entityClass.getSimpleName(), operation, sql, params);
+    }
+
+    void complete(OperationProbe probe, int rows, Throwable error) {
+        if (probe==null)
+            return;
+        long elapsed = System.nanoTime() - probe.start;
+        OperationListener listener = this.operationListener;
+        if (listener!=null) {
+            try {
+                listener.operationCompleted(probe.entityName, probe.operation, probe.sql, probe.params, elapsed, probe.mappingNanos.get(), rows, error);
+            }
+            catch (RuntimeException e) {
+                log.warn("Operation listener failed.", e);
+            }
+        }
+        if (slowQueryMillis > 0 && elapsed >= slowQueryMillis * 1000000L) {
+            log.warn("Slow " + probe.operation + " (" + (elapsed / 1000000L) + " ms, " + rows + " rows): " + probe.sql
+                    + (probe.params==null ? "" : " " + Arrays.deepToString(probe.params)));
+        }
+    }
+
+    /**
+     * Execute update statement as an operation.
+     */
+    int update(String operation, EntityOperation<?> op, JdbcTemplate template, String sql, Object[] params) {
+        OperationProbe probe = probe(operation, op, sql, params);
+        int n = 0;
+        Throwable error = null;
+        try {
+            markWrite();
+            n = template.update(sql, params);
+            return n;
+        }
+        catch (RuntimeException e) {
+            error = e;
+            throw e;
+        }
+        finally {
+            complete(probe, n, error);
+        }
+    }
+
+    /**
+     * Execute query of entities as an operation.
+     */
+    <T> List<T> select(String operation, EntityOperation<T> op, JdbcTemplate template, String sql, Object[] params) {
+        OperationProbe probe = probe(operation, op, sql, params);
+        List<T> list = null;
+        Throwable error = null;
+        try {
+            list = template.query(sql, params, op.createRowMapper(probe));
+            return list;
+        }
+        catch (RuntimeException e) {
+            error = e;
+            throw e;
+        }
+        finally {
+            complete(probe, list==null ? 0 : list.size(), error);
+        }
+    }
+
     String[] packageNames;
 
     public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    List<JdbcTemplate> replicaJdbcTemplates = Collections.emptyList();
+    LoadBalancer loadBalancer = new RoundRobinLoadBalancer();
+    long readYourWritesMillis = 0;
+
+    /**
+     * Time of last write of current thread, which is shared with async 
+     * tasks of AsyncDb started by the thread.
+     */
+    final ThreadLocal<AtomicLong> lastWriteTime = new ThreadLocal<AtomicLong>();
+
+    /**
+     * Set replicas for reads. Queries and getById outside transaction are 
+     * sent to a replica selected by load balancer, and all writes, locking 
+     * selects and statements in transaction are sent to the primary 
+     * jdbcTemplate. Rows read from replicas may lag behind the primary, and 
+     * may be kept by entity cache and query cache until TTL.
+     * 
+     * @param replicaJdbcTemplates JdbcTemplates of replicas.
+     */
+    public void setReplicaJdbcTemplates(List<JdbcTemplate> replicaJdbcTemplates) {
+        this.replicaJdbcTemplates = new ArrayList<JdbcTemplate>(replicaJdbcTemplates);
+    }
+
+    /**
+     * Set policy to select replica for each read. Default to round robin.
+     * 
+     * @param loadBalancer Load balancer of replicas.
+     */
+    public void setLoadBalancer(LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    /**
+     * Set time window after a write in which reads of the same thread are 
+     * sent to the primary, so the thread could read its own writes. Default 
+     * to 0 which is disabled.
+     * 
+     * @param readYourWritesMillis Time window in milliseconds.
+     */
+    public void setReadYourWritesMillis(long readYourWritesMillis) {
+        this.readYourWritesMillis = readYourWritesMillis;
+    }
+
+    /**
+     * Record time of write of current thread, so reads in readYourWritesMillis 
+     * go to the primary. Called by every write whatever caches are enabled.
+     */
+    void markWrite() {
+        if (readYourWritesMillis > 0 && ! replicaJdbcTemplates.isEmpty())
+            lastWriteTime().set(System.currentTimeMillis());
+    }
+
+    /**
+     * Get time of last write of current thread, created if not exist.
+     */
+    AtomicLong lastWriteTime() {
+        AtomicLong time = lastWriteTime.get();
+        if (time==null) {
+            time = new AtomicLong();
+            lastWriteTime.set(time);
+        }
+        return time;
+    }
+
+    /**
+     * Get JdbcTemplate to execute a read.
+     */
+    JdbcTemplate readTemplate(String sql) {
+        List<JdbcTemplate> replicas = this.replicaJdbcTemplates;
+        if (replicas.isEmpty() || TransactionSynchronizationManager.isActualTransactionActive())
+            return jdbcTemplate;
+        if (readYourWritesMillis > 0) {
+            AtomicLong time = lastWriteTime.get();
+            if (time!=null && System.currentTimeMillis() - time.get() < readYourWritesMillis)
+                return jdbcTemplate;
+        }
+        SqlInfo info = getSqlInfo(sql);
+        if (info.locking || ! info.isSelect())
+            return jdbcTemplate;
+        return loadBalancer.select(replicas);
+    }
+
+    List<JdbcTemplate> shardJdbcTemplates = Collections.emptyList();
+    ShardFunction shardFunction = new ModShardFunction();
+    long shardTimeoutMillis = 30000;
+    ExecutorService shardExecutor = null;
+
+    /**
+     * Sharded entities by lower-case table name.
+     */
+    final Map<String, EntityOperation<?>> shardedTables = new ConcurrentHashMap<String, EntityOperation<?>>();
+
+    /**
+     * Set shards of sharded entities. The primary jdbcTemplate is not a 
+     * shard unless it is also in the list.
+     * 
+     * @param shardJdbcTemplates JdbcTemplates of shards.
+     */
+    public void setShardJdbcTemplates(List<JdbcTemplate> shardJdbcTemplates) {
+        this.shardJdbcTemplates = new ArrayList<JdbcTemplate>(shardJdbcTemplates);
+    }
+
+    /**
+     * Set policy to locate shard by id. Default to id modulo number of shards.
+     * 
+     * @param shardFunction Shard function.
+     */
+    public void setShardFunction(ShardFunction shardFunction) {
+        this.shardFunction = shardFunction;
+    }
+
+    /**
+     * Set timeout of query on each shard when a query is sent to all shards. 
+     * It is also set as query timeout of statements. Default to 30 seconds.
+     * 
+     * @param shardTimeoutMillis Timeout in milliseconds.
+     */
+    public void setShardTimeoutMillis(long shardTimeoutMillis) {
+        if (shardTimeoutMillis < 1)
+            throw new IllegalArgumentException("Timeout must be positive.");
+        this.shardTimeoutMillis = shardTimeoutMillis;
+    }
+
+    /**
+     * Set executor to query shards in parallel. Default to a cached thread 
+     * pool of daemon threads.
+     * 
+     * @param shardExecutor Executor of shard queries.
+     */
+    public void setShardExecutor(ExecutorService shardExecutor) {
+        this.shardExecutor = shardExecutor;
+    }
+
+    /**
+     * Enable sharding of entity. Rows are stored in the shard located by id, 
+     * so getById, getByIds, create, updateEntity, updateProperties, 
+     * deleteEntity, deleteById and their batch variants are sent to the 
+     * shard of each id. Other queries and executeUpdate on the table are 
+     * sent to all shards: queryForList concatenates rows, queryForLong and 
+     * queryForInt sum results (so only count and sum are supported), and 
+     * queryForPage merges sorted rows of shards. Statements on shards do not 
+     * join the transaction of current thread.
+     * 
+     * @param clazz Entity class type.
+     */
+    public void enableSharding(Class<?> clazz) {
+        if (shardJdbcTemplates.isEmpty())
+            throw new DbException("No shard JdbcTemplates.");
+        EntityOperation<?> op = getEntityOperation(clazz);
+        op.sharded = true;
+        shardedTables.put(op.tableName.toLowerCase(), op);
+    }
+
+    /**
+     * Get JdbcTemplate of the shard of id.
+     */
+    JdbcTemplate shardTemplate(EntityOperation<?> op, Object idValue) {
+        List<JdbcTemplate> shards = this.shardJdbcTemplates;
+        int index = shardFunction.shard(op.entityClass, idValue, shards.size());
+        if (index < 0 || index >= shards.size())
+            throw new DbException("Invalid shard " + index + " of id: " + idValue);
+        return shards.get(index);
+    }
+
+    /**
+     * Get JdbcTemplate to write entity of id.
+     */
+    JdbcTemplate writeTemplate(EntityOperation<?> op, Object idValue) {
+        return op.sharded ? shardTemplate(op, idValue) : jdbcTemplate;
+    }
+
+    boolean isSharded(String sql) {
+        if (shardedTables.isEmpty())
+            return false;
+        for (String table : getSqlInfo(sql).tableNames) {
+            if (shardedTables.containsKey(table.toLowerCase()))
+                return true;
+        }
+        return false;
+    }
+
+    synchronized ExecutorService shardExecutor() {
+        if (shardExecutor==null) {
+            shardExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                final AtomicInteger n = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simplejdbc-shard-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return shardExecutor;
+    }
+
+    /**
+     * Query all shards in parallel, and return results in the order of 
+     * shards. Each shard must return in shardTimeoutMillis.
+     */
+    <R> List<List<R>> queryShards(final String sql, final Object[] params, RowMapper<R> rowMapper, EntityOperation<R> op, OperationProbe probe) {
+        if (log.isDebugEnabled())
+            log.debug("Query on all shards: " + sql);
+        List<JdbcTemplate> shards = this.shardJdbcTemplates;
+        ExecutorService executor = shardExecutor();
+        final int queryTimeout = (int) ((shardTimeoutMillis + 999) / 1000);
+        long deadline = System.currentTimeMillis() + shardTimeoutMillis;
+        List<Future<List<R>>> futures = new ArrayList<Future<List<R>>>(shards.size());
+        // statements on shard threads are cancelled with the async task:
+        final StatementTracker tracker = StatementTracker.current.get();
+        try {
+            for (final JdbcTemplate shard : shards) {
+                // row mapper of entity is not thread-safe:
+                final RowMapper<R> mapper = op==null ? rowMapper : op.createRowMapper(probe);
+                futures.add(executor.submit(new Callable<List<R>>() {
+                    public List<R> call() {
+                        if (tracker!=null)
+                            StatementTracker.current.set(tracker);
+                        try {
+                            return shard.query(new StreamingStatementCreator(sql, params, 0, queryTimeout), new RowMapperResultSetExtractor<R>(mapper));
+                        }
+                        finally {
+                            StatementTracker.current.remove();
+                        }
+                    }
+                }));
+            }
+            List<List<R>> results = new ArrayList<List<R>>(shards.size());
+            for (int i=0; i<futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+                }
+                catch (TimeoutException e) {
+                    throw new DbException("Query on shard " + i + " timed out after " + shardTimeoutMillis + " ms: " + sql, e);
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw new DbException(e.getCause());
+                }
+            }
+            return results;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException(e);
+        }
+        finally {
+            for (Future<List<R>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Execute query on the replica or primary, or on all shards and merge 
+     * results if the query reads a sharded table.
+     */
+    @SuppressWarnings("unchecked")
+    <R> List<R> fetch(int kind, String sql, Object[] params, RowMapper<R> rowMapper, EntityOperation<R> op, OperationProbe probe) {
+        if ( ! isSharded(sql))
+            return readTemplate(sql).query(sql, params, rowMapper);
+        List<List<R>> results = queryShards(sql, params, rowMapper, op, probe);
+        if (kind==QUERY_LIST) {
+            int size = 0;
+            for (List<R> result : results) {
+                size += result.size();
+            }
+            List<R> list = new ArrayList<R>(size);
+            for (List<R> result : results) {
+                list.addAll(result);
+            }
+            return list;
+        }
+        long sum = 0;
+        for (List<R> result : results) {
+            for (R r : result) {
+                sum += ((Number) r).longValue();
+            }
+        }
+        return (List<R>) Collections.singletonList(kind==QUERY_LONG ? (Object) Long.valueOf(sum) : (Object) Integer.valueOf((int) sum));
+    }
+
     public void setPackageName(String packageName) {
         this.packageNames = new String[] { packageName };
     }
@@ -40,6 +456,134 @@ public class Db {
         this.packageNames = packageNames.toArray(new String[packageNames.size()]);
     }
 
+    // max number of parameters of one prepared statement:
+    static final int MAX_PARAMETERS = 65535;
+
+    int batchSize = 1000;
+    int maxInListSize = 1000;
+    boolean extendedInsert = false;
+    int maxStatementBytes = 1024 * 1024;
+    int fetchSize = 0;
+    Dialect dialect = new MySQLDialect();
+
+    /**
+     * Set max number of rows sent in one JDBC batch. Default to 1000.
+     * 
+     * @param batchSize Max rows of one batch.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive.");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set true to insert entities of createAll by multi-row 
+     * "insert ... values (...),(...)" statements instead of a JDBC batch of 
+     * single-row inserts. Default to false. Rows of one statement are limited 
+     * by both batchSize and maxStatementBytes.
+     * 
+     * @param extendedInsert True if use multi-row insert.
+     */
+    public void setExtendedInsert(boolean extendedInsert) {
+        this.extendedInsert = extendedInsert;
+    }
+
+    /**
+     * Set estimated max bytes of one multi-row insert statement, which should 
+     * be less than max_allowed_packet of MySQL. Default to 1 MB.
+     * 
+     * @param maxStatementBytes Max bytes of one statement.
+     */
+    public void setMaxStatementBytes(int maxStatementBytes) {
+        if (maxStatementBytes < 1)
+            throw new IllegalArgumentException("Max statement bytes must be positive.");
+        this.maxStatementBytes = maxStatementBytes;
+    }
+
+    /**
+     * Set fetch size of streaming queries (queryForEach, queryForIterator and 
+     * queryForStream). Default to 0 which uses the default of driver. For MySQL, 
+     * set to Integer.MIN_VALUE to stream rows one by one.
+     * 
+     * @param fetchSize Fetch size hint of driver.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Set SQL dialect of database, which builds upsert statements of save 
+     * and saveAll. Default to MySQLDialect.
+     * 
+     * @param dialect SQL dialect.
+     */
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Set max number of values in one "in (?,?,...)" list, to keep statements 
+     * under the packet limit of driver. Default to 1000.
+     * 
+     * @param maxInListSize Max values of one in-list.
+     */
+    public void setMaxInListSize(int maxInListSize) {
+        if (maxInListSize < 1)
+            throw new IllegalArgumentException("Max in-list size must be positive.");
+        this.maxInListSize = maxInListSize;
+    }
+
+    final Map<Class<?>, Converter<?>> converters = new ConcurrentHashMap<Class<?>, Converter<?>>();
+    volatile boolean entityFound = false;
+
+    /**
+     * Register converter of property type, which overrides built-in 
+     * conversion of enums, dates, java.time, BigDecimal and byte[]. Must be 
+     * called before any entity is used.
+     * 
+     * @param <T> Property type.
+     * @param type Property type.
+     * @param converter Converter of property type.
+     */
+    public <T> void registerConverter(Class<T> type, Converter<T> converter) {
+        if (entityFound)
+            throw new IllegalStateException("Could not register converter after entities are used.");
+        converters.put(type, converter);
+    }
+
+    /**
+     * Set converters by property type, which could be used in Spring 
+     * configuration.
+     * 
+     * @param converters Converters by property type.
+     */
+    public void setConverters(Map<Class<?>, Converter<?>> converters) {
+        if (entityFound)
+            throw new IllegalStateException("Could not register converter after entities are used.");
+        this.converters.putAll(converters);
+    }
+
+    // max number of entity names indexed for SQL-derived lookups:
+    static final int MAX_ENTITY_NAMES = 1024;
+
+    /**
+     * Entity operations by entity class identity.
+     */
+    final ClassValue<EntityOperation<?>> entityOperations = new ClassValue<EntityOperation<?>>() {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        protected EntityOperation<?> computeValue(Class<?> entityClass) {
+            if ( ! entityClass.isAnnotationPresent(Entity.class))
+                throw new DbException("Unknown entity: " + entityClass.getName());
+            log.info("Found entity class: " + entityClass.getName());
+            entityFound = true;
+            return new EntityOperation(entityClass, converters);
+        }
+    };
+
+    /**
+     * Entity operations by entity name which is found in SQL.
+     */
     final Map<String, EntityOperation<?>> entityMap = new ConcurrentHashMap<String, EntityOperation<?>>();
 
     Class<?> findClass(String className) {
@@ -62,20 +606,87 @@ public class Db {
         return null;
     }
 
+    /**
+     * Scan configured packages for @Entity classes, and build their 
+     * operations and SQL statements up front, so the first request does not 
+     * pay for class lookup and SQL building. Could be used as init-method 
+     * of Spring bean:
+     * <code>
+     * &lt;bean id="db" class="org.expressme.simplejdbc.Db" init-method="warmUp"&gt;
+     * </code>
+     * 
+     * @return Number of entities found.
+     */
+    public int warmUp() {
+        long start = System.currentTimeMillis();
+        int n = 0;
+        ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        MetadataReaderFactory readerFactory = new SimpleMetadataReaderFactory(resolver);
+        for (String packageName : this.packageNames) {
+            String pattern = ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + ClassUtils.convertClassNameToResourcePath(packageName) + "/*.class";
+            Resource[] resources = null;
+            try {
+                resources = resolver.getResources(pattern);
+            }
+            catch (IOException e) {
+                throw new DbException("Could not scan package: " + packageName, e);
+            }
+            for (Resource resource : resources) {
+                Class<?> entityClass = loadEntityClass(readerFactory, resource);
+                if (entityClass==null)
+                    continue;
+                EntityOperation<?> op = entityOperations.get(entityClass);
+                op.prepare();
+                if ( ! entityMap.containsKey(entityClass.getSimpleName())) {
+                    entityMap.put(entityClass.getSimpleName(), op);
+                }
+                n++;
+            }
+        }
+        log.info("Warmed up " + n + " entities in " + (System.currentTimeMillis() - start) + " ms.");
+        return n;
+    }
+
+    Class<?> loadEntityClass(MetadataReaderFactory readerFactory, Resource resource) {
+        String className = null;
+        try {
+            MetadataReader reader = readerFactory.getMetadataReader(resource);
+            if ( ! reader.getAnnotationMetadata().hasAnnotation(Entity.class.getName()))
+                return null;
+            className = reader.getClassMetadata().getClassName();
+        }
+        catch (Exception e) {
+            log.warn("Skip class could not be read: " + resource, e);
+            return null;
+        }
+        try {
+            return Class.forName(className);
+        }
+        catch (ClassNotFoundException e) {
+            throw new DbException("Could not load entity class: " + className, e);
+        }
+    }
+
     EntityOperation<?> getEntityOperation(Class<?> entityClass) {
-        return getEntityOperationByEntityName(entityClass.getSimpleName());
+        return entityOperations.get(entityClass);
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     EntityOperation<?> getEntityOperationByEntityName(String entityClassName) {
         EntityOperation<?> op = entityMap.get(entityClassName);
         if (op==null) {
             Class<?> entityClass = findClass(entityClassName);
-            if (entityClass==null)
+            if (entityClass==null) {
+                // table name in SQL may differ in case:
+                for (String name : entityMap.keySet()) {
+                    if (name.equalsIgnoreCase(entityClassName))
+                        return entityMap.get(name);
+                }
                 throw new DbException("Unknown entity: " + entityClassName);
-            log.info("Found entity class: " + entityClass.getName());
-            op = new EntityOperation(entityClass);
-            entityMap.put(entityClass.getSimpleName(), op);
+            }
+            op = entityOperations.get(entityClass);
+            if (entityMap.size() < MAX_ENTITY_NAMES) {
+                entityMap.put(entityClassName, op);
+            }
         }
         return op;
     }
@@ -92,191 +703,1242 @@ public class Db {
         }
     };
 
-    final Pattern SELECT_FROM = Pattern.compile("^(select|SELECT) .* (from|FROM) +(\\w+) ?.*$");
+    /**
+     * Entity operations which have cache enabled, by lower-case table name.
+     */
+    final Map<String, EntityOperation<?>> cachedTables = new ConcurrentHashMap<String, EntityOperation<?>>();
+
+    /**
+     * Enable cache of getById for entity. Cached entities are evicted by 
+     * updateEntity, updateProperties, deleteEntity, deleteById, their batch 
+     * variants, and executeUpdate on the same table. Writes which do not go 
+     * through this Db instance are only seen after TTL. For example:
+     * <code>
+     * // cache at most 10000 users for 5 minutes:
+     * db.enableEntityCache(User.class, 10000, 300000);
+     * </code>
+     * 
+     * @param clazz Entity class type.
+     * @param maxSize Max number of cached entities.
+     * @param ttlMillis Time to live in milliseconds.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void enableEntityCache(Class<?> clazz, int maxSize, long ttlMillis) {
+        if (ttlMillis < 1)
+            throw new IllegalArgumentException("TTL must be positive.");
+        EntityOperation op = getEntityOperation(clazz);
+        op.cache = new EntityCache(op, maxSize, ttlMillis);
+        cachedTables.put(op.tableName.toLowerCase(), op);
+    }
+
+    /**
+     * Disable cache of getById for entity.
+     * 
+     * @param clazz Entity class type.
+     */
+    public void disableEntityCache(Class<?> clazz) {
+        EntityOperation<?> op = getEntityOperation(clazz);
+        cachedTables.remove(op.tableName.toLowerCase());
+        op.cache = null;
+    }
+
+    /**
+     * Get statistics of entity cache.
+     * 
+     * @param clazz Entity class type.
+     * @return Statistics of cache, or null if cache is not enabled.
+     */
+    public CacheStats getEntityCacheStats(Class<?> clazz) {
+        EntityCache<?> cache = getEntityOperation(clazz).cache;
+        return cache==null ? null : cache.getStats();
+    }
+
+    /**
+     * Evict entity from cache after write, or clear cache if id value is 
+     * null. In transaction, evict again after completion, so a concurrent 
+     * getById could not cache the row before commit. Query cache is 
+     * invalidated by caller once per statement.
+     */
+    void evictCache(EntityOperation<?> op, final Object idValue) {
+        final EntityCache<?> cache = op.cache;
+        if (cache==null)
+            return;
+        if (idValue==null)
+            cache.clear();
+        else
+            cache.evict(idValue);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (idValue==null)
+                        cache.clear();
+                    else
+                        cache.evict(idValue);
+                }
+            });
+        }
+    }
+
+    /**
+     * Evict entities of ids written by one statement from cache, and evict 
+     * them again after completion of transaction by one synchronization.
+     */
+    void evictCacheAll(EntityOperation<?> op, final Object[] idValues) {
+        final EntityCache<?> cache = op.cache;
+        if (cache==null)
+            return;
+        for (Object idValue : idValues) {
+            cache.evict(idValue);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    for (Object idValue : idValues) {
+                        cache.evict(idValue);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Enable dirty tracking of entity. Entities loaded or saved by this Db 
+     * instance keep a snapshot of their updatable properties, and 
+     * updateEntity writes only changed columns of a tracked entity, or 
+     * nothing if no property changed. Untracked entities are updated with 
+     * all updatable properties.
+     * 
+     * @param clazz Entity class type.
+     */
+    public void enableDirtyTracking(Class<?> clazz) {
+        EntityOperation<?> op = getEntityOperation(clazz);
+        if (op.snapshots==null)
+            op.snapshots = new SnapshotRegistry();
+    }
+
+    /**
+     * Disable dirty tracking of entity.
+     * 
+     * @param clazz Entity class type.
+     */
+    public void disableDirtyTracking(Class<?> clazz) {
+        getEntityOperation(clazz).snapshots = null;
+    }
+
+    /**
+     * Untrack entity if transaction of a write is rolled back, so the next 
+     * update writes all updatable properties.
+     */
+    void untrackOnRollback(final EntityOperation<?> op, final Object entity) {
+        if (op.snapshots!=null && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status!=STATUS_COMMITTED)
+                        op.untrack(entity);
+                }
+            });
+        }
+    }
+
+    volatile QueryCache queryCache = null;
+
+    /**
+     * Enable cache of queryForList, queryForObject, queryForLong and 
+     * queryForInt results, keyed by SQL and parameters. Any write of this Db 
+     * instance to a table invalidates all cached results which read the 
+     * table. Writes which do not go through this Db instance are only seen 
+     * after TTL.
+     * 
+     * @param maxBytes Max estimated bytes of cached results.
+     * @param ttlMillis Time to live in milliseconds.
+     */
+    public void enableQueryCache(long maxBytes, long ttlMillis) {
+        this.queryCache = new QueryCache(maxBytes, ttlMillis);
+    }
+
+    /**
+     * Disable query cache.
+     */
+    public void disableQueryCache() {
+        this.queryCache = null;
+    }
+
+    /**
+     * Get statistics of query cache.
+     * 
+     * @return Statistics of cache, or null if cache is not enabled.
+     */
+    public CacheStats getQueryCacheStats() {
+        QueryCache qc = queryCache;
+        return qc==null ? null : qc.getStats();
+    }
+
+    /**
+     * Invalidate cached query results of table after write. In transaction, 
+     * invalidate again after completion. Reads of current thread are sent 
+     * to the primary in the read-your-writes window.
+     */
+    void invalidateQueryCache(final String table) {
+        final QueryCache qc = queryCache;
+        if (qc==null)
+            return;
+        qc.invalidate(table);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    qc.invalidate(table);
+                }
+            });
+        }
+    }
+
+    LruCache<String, SqlInfo> sqlCache = new LruCache<String, SqlInfo>(1024);
+
+    /**
+     * Set max number of analyzed SQL statements to cache. Default to 1024.
+     * 
+     * @param sqlCacheSize Max number of SQL statements.
+     */
+    public void setSqlCacheSize(int sqlCacheSize) {
+        this.sqlCache = new LruCache<String, SqlInfo>(sqlCacheSize);
+    }
+
+    /**
+     * Get statistics of SQL analysis cache.
+     * 
+     * @return Statistics of cache.
+     */
+    public CacheStats getSqlCacheStats() {
+        return sqlCache.getStats();
+    }
+
+    SqlInfo getSqlInfo(String sql) {
+        SqlInfo info = sqlCache.get(sql);
+        if (info==null) {
+            info = SqlInfo.parse(sql);
+            sqlCache.put(sql, info);
+        }
+        return info;
+    }
+
+    EntityOperation<?> getEntityOperationBySQL(String sql) {
+        SqlInfo info = getSqlInfo(sql);
+        EntityOperation<?> op = info.entityOperation;
+        if (op==null) {
+            if ( ! info.isSelect() || info.tableName==null) {
+                throw new DbException("SQL grammar error: " + sql);
+            }
+            op = getEntityOperationByEntityName(info.tableName);
+            info.entityOperation = op;
+        }
+        return op;
+    }
+
+    /**
+     * Execute any update SQL statement.
+     * 
+     * @param sql SQL query.
+     * @param params SQL parameters.
+     * @return Number of affected rows.
+     */
+    public int executeUpdate(String sql, Object... params) {
+        int n = 0;
+        if (isSharded(sql)) {
+            for (JdbcTemplate shard : shardJdbcTemplates) {
+                n += update("executeUpdate", null, shard, sql, params);
+            }
+        }
+        else {
+            n = update("executeUpdate", null, jdbcTemplate, sql, params);
+        }
+        if ( ! cachedTables.isEmpty() || queryCache!=null) {
+            for (String table : getSqlInfo(sql).tableNames) {
+                EntityOperation<?> op = cachedTables.get(table.toLowerCase());
+                if (op!=null)
+                    evictCache(op, null);
+                invalidateQueryCache(table);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Delete an entity by its id property. For example:
+     * 
+     * User user = new User(12300); // id=12300
+     * db.deleteEntity(user);
+     * 
+     * @param entity Entity object instance.
+     */
+    public void deleteEntity(Object entity) {
+        EntityOperation<?> op = getEntityOperation(entity.getClass());
+        try {
+            SQLOperation sqlo = op.deleteEntity(entity);
+            update("deleteEntity", op, writeTemplate(op, sqlo.params[0]), sqlo.sql, sqlo.params);
+            op.untrack(entity);
+            evictCache(op, sqlo.params[0]);
+            invalidateQueryCache(op.tableName);
+        }
+        catch (Exception e) {
+            throw new DbException(e);
+        }
+    }
+
+    /**
+     * Update the entity with all updatable properties, or only changed 
+     * properties if the entity is tracked by dirty tracking. If the entity 
+     * has @Version property, the update only succeeds if version is not 
+     * changed since the entity is loaded, and the version is increased.
+     * 
+     * @param entity Entity object instance.
+     * @throws VersionConflictException If version of entity is changed.
+     */
+    public void updateEntity(Object entity) {
+        EntityOperation<?> op = getEntityOperation(entity.getClass());
+        SQLOperation sqlo = null;
+        try {
+            sqlo = op.updateEntity(entity);
+        }
+        catch (Exception e) {
+            throw new DbException(e);
+        }
+        if (sqlo==null)
+            return;
+        Object idValue = sqlo.params[sqlo.params.length - 1];
+        int n = update("updateEntity", op, writeTemplate(op, idValue), sqlo.sql, sqlo.params);
+        evictCache(op, idValue);
+        invalidateQueryCache(op.tableName);
+        checkVersion(op, entity, idValue, n);
+        try {
+            op.incrementVersion(entity);
+            op.track(entity);
+        }
+        catch (Exception e) {
+            throw new DbException(e);
+        }
+        untrackOnRollback(op, entity);
+    }
+
+    /**
+     * Throw VersionConflictException if update of versioned entity affects 
+     * no row.
+     */
+    void checkVersion(EntityOperation<?> op, Object entity, Object idValue, int rows) {
+        if (rows==0 && op.versionMapping!=null)
+            throw new VersionConflictException("Version conflict of " + op.entityClass.getName() + " with id " + idValue + ".",
+                    Collections.singletonList(entity), new int[] { 0 });
+    }
+
+    /**
+     * Update the entity with specified properties. The version is checked 
+     * and increased as updateEntity does if the entity has @Version property.
+     * 
+     * @param entity Entity object instance.
+     * @param properties Properties that are about to update.
+     * @throws VersionConflictException If version of entity is changed.
+     */
+    public void updateProperties(Object entity, String... properties) {
+        if (properties.length == 0)
+            throw new DbException("Update properties required.");
+        EntityOperation<?> op = getEntityOperation(entity.getClass());
+        SQLOperation sqlo = null;
+        try {
+            sqlo = op.updateProperties(entity, properties);
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        Object idValue = sqlo.params[sqlo.params.length - 1];
+        int n = update("updateProperties", op, writeTemplate(op, idValue), sqlo.sql, sqlo.params);
+        evictCache(op, idValue);
+        invalidateQueryCache(op.tableName);
+        checkVersion(op, entity, idValue, n);
+        try {
+            op.incrementVersion(entity);
+            op.trackProperties(entity, properties);
+        }
+        catch (Exception e) {
+            throw new DbException(e);
+        }
+        untrackOnRollback(op, entity);
+    }
+
+    /**
+     * Query for long result. For example:
+     * <code>
+     * long count = db.queryForLong("select count(*) from User where age>?", 20);
+     * </code>
+     * 
+     * @param sql SQL query statement.
+     * @param args SQL query parameters.
+     * @return Long result.
+     */
+    public long queryForLong(String sql, Object... args) {
+        if (log.isDebugEnabled())
+            log.debug("Query for long: " + sql);
+        List<Long> list = query(QUERY_LONG, sql, args, longRowMapper, null);
+        if (list.isEmpty())
+            throw new DbException("empty results.");
+        if (list.size() > 1)
+            throw new DbException("non-unique results.");
+        return list.get(0);
+    }
+
+    /**
+     * Query for int result. For example:
+     * <code>
+     * int count = db.queryForLong("select count(*) from User where age>?", 20);
+     * </code>
+     * 
+     * @param sql SQL query statement.
+     * @param args SQL query parameters.
+     * @return Int result.
+     */
+    public int queryForInt(String sql, Object... args) {
+        if (log.isDebugEnabled())
+            log.debug("Query for int: " + sql);
+        List<Integer> list = query(QUERY_INT, sql, args, intRowMapper, null);
+        if (list.isEmpty())
+            throw new DbException("empty results.");
+        if (list.size() > 1)
+            throw new DbException("non-unique results.");
+        return list.get(0);
+    }
+
+    /**
+     * Query for the first column of all rows as long array, which is read 
+     * by rs.getLong() without boxing. Results are not cached. For example:
+     * <code>
+     * long[] ids = db.queryForLongArray("select id from User where age>?", 20);
+     * </code>
+     * 
+     * @param sql SQL query statement.
+     * @param args SQL query parameters.
+     * @return Long array of the first column.
+     */
+    public long[] queryForLongArray(String sql, Object... args) {
+        if (log.isDebugEnabled())
+            log.debug("Query for long array: " + sql);
+        LongArrayBuilder builder = new LongArrayBuilder();
+        queryForColumn("queryForLongArray", sql, args, 0, builder, null);
+        return builder.toArray();
+    }
+
+    /**
+     * Query for the first column of all rows as int array, which is read 
+     * by rs.getInt() without boxing. Results are not cached.
+     * 
+     * @param sql SQL query statement.
+     * @param args SQL query parameters.
+     * @return Int array of the first column.
+     */
+    public int[] queryForIntArray(String sql, Object... args) {
+        if (log.isDebugEnabled())
+            log.debug("Query for int array: " + sql);
+        IntArrayBuilder builder = new IntArrayBuilder();
+        queryForColumn("queryForIntArray", sql, args, 0, null, builder);
+        return builder.toArray();
+    }
+
+    /**
+     * Query and pass the first column of each row as long to callback as 
+     * soon as its row is read, so unbounded results could be processed 
+     * without boxing or buffering. The statement is streaming like 
+     * queryForEach. For example:
+     * <code>
+     * db.queryForEachLong("select id from User where age>?", warmer, 20);
+     * </code>
+     * 
+     * @param sql SQL query statement.
+     * @param callback Callback of each long value.
+     * @param args SQL query parameters.
+     */
+    public void queryForEachLong(String sql, LongConsumer callback, Object... args) {
+        if (log.isDebugEnabled())
+            log.debug("Query for each long: " + sql);
+        queryForColumn("queryForEachLong", sql, args, fetchSize, callback, null);
+    }
+
+    /**
+     * Read the first column of each row by either longs or ints callback.
+     */
+    void queryForColumn(String operation, String sql, Object[] params, int fetchSize, final LongConsumer longs, final IntConsumer ints) {
+        OperationProbe probe = probe(operation, null, sql, params);
+        final int[] rows = { 0 };
+        RowCallbackHandler handler = new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                if (longs!=null)
+                    longs.accept(rs.getLong(1));
+                else
+                    ints.accept(rs.getInt(1));
+                rows[0]++;
+            }
+        };
+        Throwable error = null;
+        try {
+            // shards are read one by one:
+            List<JdbcTemplate> templates = isSharded(sql) ? shardJdbcTemplates : Collections.singletonList(readTemplate(sql));
+            for (JdbcTemplate template : templates) {
+                template.query(new StreamingStatementCreator(sql, params, fetchSize), handler);
+            }
+        }
+        catch (RuntimeException e) {
+            error = e;
+            throw e;
+        }
+        finally {
+            complete(probe, rows[0], error);
+        }
+    }
+
+    /**
+     * Query for one single object. For example:
+     * <code>
+     * User user = db.queryForObject("select * from User where name=?", "Michael");
+     * </code>
+     * 
+     * @param sql SQL query statement.
+     * @param args SQL query parameters.
+     * @return The only one single result, or null if no result.
+     */
+    public <T> T queryForObject(String sql, Object... args) {
+        if (log.isDebugEnabled())
+            log.debug("Query for object: " + sql);
+        List<T> list = queryForList(sql, args);
+        if (list.isEmpty())
+            return null;
+        if (list.size() > 1)
+            throw new DbException("non-unique results.");
+        return list.get(0);
+    }
+
+    /**
+     * Query for list. For example:
+     * <code>
+     * List&lt;User&gt; users = db.queryForList("select * from User where age>?", 20);
+     * </code>
+     * 
+     * @param <T> Return type of list element.
+     * @param sql SQL query.
+     * @param params SQL parameters.
+     * @return List of query result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> queryForList(String sql, Object... params) {
+        if (log.isDebugEnabled())
+            log.debug("Query for list: " + sql);
+        EntityOperation<T> op = (EntityOperation<T>) getEntityOperationBySQL(sql);
+        return query(QUERY_LIST, sql, params, op.createRowMapper(), op);
+    }
+
+    static final int QUERY_LIST = 0;
+    static final int QUERY_LONG = 1;
+    static final int QUERY_INT = 2;
+
+    static final String[] QUERY_OPERATIONS = { "queryForList", "queryForLong", "queryForInt" };
+
+    /**
+     * Query through query cache if enabled. Locking selects and queries in 
+     * transaction are not cached.
+     */
+    <R> List<R> query(int kind, String sql, Object[] params, RowMapper<R> rowMapper, EntityOperation<R> op) {
+        OperationProbe probe = probe(QUERY_OPERATIONS[kind], op, sql, params);
+        if (probe==null)
+            return cachedQuery(kind, sql, params, rowMapper, op, null);
+        List<R> list = null;
+        Throwable error = null;
+        try {
+            list = cachedQuery(kind, sql, params, op==null ? rowMapper : op.createRowMapper(probe), op, probe);
+            return list;
+        }
+        catch (RuntimeException e) {
+            error = e;
+            throw e;
+        }
+        finally {
+            complete(probe, list==null ? 0 : list.size(), error);
+        }
+    }
+
+    <R> List<R> cachedQuery(int kind, String sql, Object[] params, RowMapper<R> rowMapper, EntityOperation<R> op, OperationProbe probe) {
+        QueryCache qc = queryCache;
+        if (qc==null || TransactionSynchronizationManager.isActualTransactionActive())
+            return fetch(kind, sql, params, rowMapper, op, probe);
+        SqlInfo info = getSqlInfo(sql);
+        if ( ! info.isSelect() || info.locking || info.tableNames.length==0)
+            return fetch(kind, sql, params, rowMapper, op, probe);
+        QueryCache.Key key = new QueryCache.Key(kind, sql, params);
+        @SuppressWarnings("unchecked")
+        List<R> cached = (List<R>) qc.get(key, info.tableNames);
+        if (cached!=null) {
+            if (op==null)
+                return new ArrayList<R>(cached);
+            List<R> list = op.copyAll(cached);
+            try {
+                op.trackAll(list);
+            }
+            catch (Exception e) {
+                throw new DbException(e);
+            }
+            return list;
+        }
+        long[] versions = qc.versions(info.tableNames);
+        List<R> list = fetch(kind, sql, params, rowMapper, op, probe);
+        if (op==null)
+            qc.put(key, new ArrayList<R>(list), versions, 24L * list.size());
+        else
+            qc.put(key, op.copyAll(list), versions, op.estimateBytes(list));
+        return list;
+    }
+
+    /**
+     * Query and pass each entity to callback as soon as its row is read, 
+     * so memory usage does not grow with the number of rows. The statement 
+     * is forward-only and read-only with fetchSize set. For example:
+     * <code>
+     * db.queryForEach("select * from User where age>?", exporter, 20);
+     * </code>
+     * 
+     * @param <T> Entity class type.
+     * @param sql SQL query.
+     * @param callback Callback of each entity.
+     * @param params SQL parameters.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void queryForEach(String sql, final Consumer<T> callback, Object... params) {
+        if (log.isDebugEnabled())
+            log.debug("Query for each: " + sql);
+        EntityOperation<T> op = (EntityOperation<T>) getEntityOperationBySQL(sql);
+        OperationProbe probe = probe("queryForEach", op, sql, params);
+        final RowMapper<T> rowMapper = op.createRowMapper(probe);
+        final int[] rows = { 0 };
+        RowCallbackHandler handler = new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                callback.accept(rowMapper.mapRow(rs, rows[0]++));
+            }
+        };
+        Throwable error = null;
+        try {
+            // shards are read one by one:
+            List<JdbcTemplate> templates = isSharded(sql) ? shardJdbcTemplates : Collections.singletonList(readTemplate(sql));
+            for (JdbcTemplate template : templates) {
+                template.query(new StreamingStatementCreator(sql, params, fetchSize), handler);
+            }
+        }
+        catch (RuntimeException e) {
+            error = e;
+            throw e;
+        }
+        finally {
+            complete(probe, rows[0], error);
+        }
+    }
+
+    /**
+     * Query for iterator which reads rows one by one from a streaming 
+     * result set. The iterator is closed when all rows are read, or must be 
+     * closed by caller if stops early.
+     * 
+     * @param <T> Entity class type.
+     * @param sql SQL query.
+     * @param params SQL parameters.
+     * @return Iterator of query result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ResultIterator<T> queryForIterator(String sql, Object... params) {
+        if (log.isDebugEnabled())
+            log.debug("Query for iterator: " + sql);
+        if (isSharded(sql))
+            throw new DbException("Could not iterate sharded table. Use queryForEach instead.");
+        EntityOperation<T> op = (EntityOperation<T>) getEntityOperationBySQL(sql);
+        OperationProbe probe = probe("queryForIterator", op, sql, params);
+        return new ResultIterator<T>(this, probe, readTemplate(sql), sql, params, fetchSize, op.createRowMapper(probe));
+    }
+
+    /**
+     * Query for stream which reads rows one by one from a streaming result 
+     * set. The stream is closed when all rows are read, or must be closed by 
+     * caller (for example, by try-with-resources) if stops early.
+     * 
+     * @param <T> Entity class type.
+     * @param sql SQL query.
+     * @param params SQL parameters.
+     * @return Stream of query result.
+     */
+    public <T> Stream<T> queryForStream(String sql, Object... params) {
+        final ResultIterator<T> it = queryForIterator(sql, params);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+            public void run() {
+                it.close();
+            }
+        });
+    }
+
+    /**
+     * Get entity by its id.
+     * 
+     * @param <T> Entity class type.
+     * @param clazz Entity class type.
+     * @param idValue Id value.
+     * @return Entity instance, or null if no such entity.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getById(Class<T> clazz, Object idValue) {
+        EntityOperation<T> op = (EntityOperation<T>) getEntityOperation(clazz);
+        EntityCache<T> cache = op.cache;
+        long generation = 0;
+        if (cache!=null) {
+            T t = cache.get(idValue);
+            if (t!=null) {
+                try {
+                    op.track(t);
+                }
+                catch (Exception e) {
+                    throw new DbException(e);
+                }
+                return t;
+            }
+            generation = cache.generation();
+        }
+        SQLOperation sqlo = op.getById(idValue);
+        JdbcTemplate template = op.sharded ? shardTemplate(op, idValue) : readTemplate(sqlo.sql);
+        List<T> list = select("getById", op, template, sqlo.sql, sqlo.params);
+        if (list.isEmpty())
+            return null;
+        if (list.size()>1)
+            throw new DbException("non-unique results.");
+        // do not cache rows which may be uncommitted:
+        if (cache!=null && ! TransactionSynchronizationManager.isActualTransactionActive())
+            cache.put(idValue, list.get(0), generation);
+        return list.get(0);
+    }
+
+    /**
+     * Get projection of entity by its id, which only selects columns of 
+     * projected properties. For example:
+     * <code>
+     * UserSummary summary = db.getProjectionById(User.class, UserSummary.class, 123);
+     * </code>
+     * 
+     * @param <P> Projection type.
+     * @param clazz Entity class type.
+     * @param projectionClass DTO class whose properties of the same names 
+     *                        as entity properties are set, or interface of 
+     *                        getters of entity properties.
+     * @param idValue Id value.
+     * @return Projection instance, or null if no such entity.
+     */
+    public <P> P getProjectionById(Class<?> clazz, Class<P> projectionClass, Object idValue) {
+        EntityOperation<?> op = getEntityOperation(clazz);
+        Projection<P> projection = op.projection(projectionClass);
+        String sql = projection.selectByIdSQL;
+        JdbcTemplate template = op.sharded ? shardTemplate(op, idValue) : readTemplate(sql);
+        List<P> list = queryProjection("getProjectionById", op, projection, template, sql, new Object[] { idValue });
+        if (list.isEmpty())
+            return null;
+        if (list.size()>1)
+            throw new DbException("non-unique results.");
+        return list.get(0);
+    }
 
     /**
-     * Execute any update SQL statement.
+     * Query for list of projections, which only selects columns of projected 
+     * properties. Results are not cached by query cache. For example:
+     * <code>
+     * List&lt;UserSummary&gt; list = db.queryForProjection(User.class, UserSummary.class, "age>? order by name", 20);
+     * </code>
      * 
-     * @param sql SQL query.
-     * @param params SQL parameters.
-     * @return Number of affected rows.
+     * @param <P> Projection type.
+     * @param clazz Entity class type.
+     * @param projectionClass DTO class whose properties of the same names 
+     *                        as entity properties are set, or interface of 
+     *                        getters of entity properties.
+     * @param where Where condition without "where" which may be followed by 
+     *              "order by" and "limit", or null if no condition.
+     * @param args SQL parameters of where condition.
+     * @return List of projections.
      */
-    public int executeUpdate(String sql, Object... params) {
-        return jdbcTemplate.update(sql, params);
+    public <P> List<P> queryForProjection(Class<?> clazz, Class<P> projectionClass, String where, Object... args) {
+        EntityOperation<?> op = getEntityOperation(clazz);
+        Projection<P> projection = op.projection(projectionClass);
+        String sql = projection.selectSQL(where);
+        return queryProjection("queryForProjection", op, projection, null, sql, args);
     }
 
     /**
-     * Delete an entity by its id property. For example:
-     * 
-     * User user = new User(12300); // id=12300
-     * db.deleteEntity(user);
+     * Query for list of partial entities which only have specified properties 
+     * set. If dirty tracking is enabled, updateEntity() of a partial entity 
+     * only updates properties changed after query. For example:
+     * <code>
+     * List&lt;User&gt; users = db.queryForProperties(User.class, new String[] { "id", "name" }, "age>?", 20);
+     * </code>
      * 
-     * @param entity Entity object instance.
+     * @param <T> Entity class type.
+     * @param clazz Entity class type.
+     * @param properties Names of properties to select.
+     * @param where Where condition without "where" which may be followed by 
+     *              "order by" and "limit", or null if no condition.
+     * @param args SQL parameters of where condition.
+     * @return List of partial entities.
      */
-    public void deleteEntity(Object entity) {
-        EntityOperation<?> op = getEntityOperation(entity.getClass());
+    @SuppressWarnings("unchecked")
+    public <T> List<T> queryForProperties(Class<T> clazz, String[] properties, String where, Object... args) {
+        EntityOperation<T> op = (EntityOperation<T>) getEntityOperation(clazz);
+        Projection<T> projection = op.projection(properties);
+        String sql = projection.selectSQL(where);
+        return queryProjection("queryForProperties", op, projection, null, sql, args);
+    }
+
+    /**
+     * Query projection on template, or on all shards if template is null.
+     */
+    <P> List<P> queryProjection(String operation, EntityOperation<?> op, Projection<P> projection, JdbcTemplate template, String sql, Object[] params) {
+        if (log.isDebugEnabled())
+            log.debug("Query for projection: " + sql);
+        OperationProbe probe = probe(operation, op, sql, params);
+        List<P> list = null;
+        Throwable error = null;
         try {
-            SQLOperation sqlo = op.deleteEntity(entity);
-            jdbcTemplate.update(sqlo.sql, sqlo.params);
+            RowMapper<P> rowMapper = projection.createRowMapper(probe);
+            list = template==null ? fetch(QUERY_LIST, sql, params, rowMapper, null, probe) : template.query(sql, params, rowMapper);
+            return list;
         }
-        catch (Exception e) {
-            throw new DbException(e);
+        catch (RuntimeException e) {
+            error = e;
+            throw e;
+        }
+        finally {
+            complete(probe, list==null ? 0 : list.size(), error);
         }
     }
 
     /**
-     * Update the entity with all updatable properties.
+     * Get entities by ids with "select ... where id in (...)" queries, in 
+     * chunks of at most maxInListSize ids. Entities in cache are not queried. 
+     * For example:
+     * <code>
+     * Map&lt;Long, User&gt; users = db.getByIds(User.class, Arrays.asList(1L, 2L, 3L));
+     * </code>
      * 
-     * @param entity Entity object instance.
+     * @param <K> Id type.
+     * @param <T> Entity class type.
+     * @param clazz Entity class type.
+     * @param idValues Id values.
+     * @return Map of id and entity in the order of ids, without ids which 
+     *         have no entity.
      */
-    public void updateEntity(Object entity) {
-        EntityOperation<?> op = getEntityOperation(entity.getClass());
+    @SuppressWarnings("unchecked")
+    public <K, T> Map<K, T> getByIds(Class<T> clazz, Collection<K> idValues) {
+        EntityOperation<T> op = (EntityOperation<T>) getEntityOperation(clazz);
+        EntityCache<T> cache = op.cache;
+        long generation = cache==null ? 0 : cache.generation();
+        Map<Object, T> found = new HashMap<Object, T>(idValues.size() * 2);
+        List<Object> missing = new ArrayList<Object>(idValues.size());
         try {
-            SQLOperation sqlo = op.updateEntity(entity);
-            jdbcTemplate.update(sqlo.sql, sqlo.params);
+            for (K idValue : idValues) {
+                T t = cache==null ? null : cache.get(idValue);
+                if (t==null) {
+                    missing.add(idValue);
+                }
+                else {
+                    op.track(t);
+                    found.put(EntityCache.key(idValue), t);
+                }
+            }
+            // do not cache rows which may be uncommitted:
+            boolean cacheable = cache!=null && ! TransactionSynchronizationManager.isActualTransactionActive();
+            int chunk = EntityOperation.maxSelectInSize(maxInListSize);
+            for (Map.Entry<JdbcTemplate, List<Object>> group : groupByShard(op, missing).entrySet()) {
+                List<Object> groupIds = group.getValue();
+                for (int from=0; from<groupIds.size(); from+=chunk) {
+                    Object[] ids = groupIds.subList(from, Math.min(groupIds.size(), from + chunk)).toArray();
+                    SQLOperation sqlo = op.getByIds(ids);
+                    JdbcTemplate template = op.sharded ? group.getKey() : readTemplate(sqlo.sql);
+                    for (T t : select("getByIds", op, template, sqlo.sql, sqlo.params)) {
+                        Object idValue = op.getId(t);
+                        found.put(EntityCache.key(idValue), t);
+                        if (cacheable)
+                            cache.put(idValue, t, generation);
+                    }
+                }
+            }
         }
         catch (Exception e) {
             throw new DbException(e);
         }
+        Map<K, T> map = new LinkedHashMap<K, T>(found.size() * 2);
+        for (K idValue : idValues) {
+            T t = found.get(EntityCache.key(idValue));
+            if (t!=null)
+                map.put(idValue, t);
+        }
+        return map;
     }
 
     /**
-     * Update the entity with specified properties.
+     * Create an entity in database, writing all insertable properties.
      * 
      * @param entity Entity object instance.
-     * @param properties Properties that are about to update.
      */
-    public void updateProperties(Object entity, String... properties) {
-        if (properties.length == 0)
-            throw new DbException("Update properties required.");
+    public void create(Object entity) {
         EntityOperation<?> op = getEntityOperation(entity.getClass());
         SQLOperation sqlo = null;
+        JdbcTemplate template = null;
         try {
-            sqlo = op.updateProperties(entity, properties);
+            sqlo = op.insertEntity(entity);
+            template = writeTemplate(op, op.sharded ? op.getId(entity) : null);
         }
         catch (Exception e) {
             throw new RuntimeException(e);
         }
-        jdbcTemplate.update(sqlo.sql, sqlo.params);
+        update("create", op, template, sqlo.sql, sqlo.params);
+        try {
+            op.track(entity);
+        }
+        catch (Exception e) {
+            throw new DbException(e);
+        }
+        untrackOnRollback(op, entity);
+        invalidateQueryCache(op.tableName);
     }
 
     /**
-     * Query for long result. For example:
+     * Create entities in database by JDBC batch, writing all insertable 
+     * properties. For example:
      * <code>
-     * long count = db.queryForLong("select count(*) from User where age>?", 20);
+     * int[] counts = db.createAll(users);
      * </code>
      * 
-     * @param sql SQL query statement.
-     * @param args SQL query parameters.
-     * @return Long result.
+     * @param entities Entity object instances.
+     * @return Number of affected rows of each entity.
      */
-    public long queryForLong(String sql, Object... args) {
-        log.info("Query for long: " + sql);
-        List<Long> list = jdbcTemplate.query(sql, args, longRowMapper);
-        if (list.isEmpty())
-            throw new DbException("empty results.");
-        if (list.size() > 1)
-            throw new DbException("non-unique results.");
-        return list.get(0);
+    public int[] createAll(Collection<?> entities) {
+        return createAll(entities.iterator());
     }
 
     /**
-     * Query for int result. For example:
-     * <code>
-     * int count = db.queryForLong("select count(*) from User where age>?", 20);
-     * </code>
+     * Create entities in database by JDBC batch. Entities are read from 
+     * iterator and sent in batches of batchSize, so the iterator could 
+     * provide more entities than memory could hold.
      * 
-     * @param sql SQL query statement.
-     * @param args SQL query parameters.
-     * @return Int result.
+     * @param entities Iterator of entity object instances.
+     * @return Number of affected rows of each entity.
      */
-    public int queryForInt(String sql, Object... args) {
-        log.info("Query for int: " + sql);
-        List<Integer> list = jdbcTemplate.query(sql, args, intRowMapper);
-        if (list.isEmpty())
-            throw new DbException("empty results.");
-        if (list.size() > 1)
-            throw new DbException("non-unique results.");
-        return list.get(0);
+    public int[] createAll(Iterator<?> entities) {
+        return batchEntities(entities, BATCH_CREATE);
     }
 
     /**
-     * Query for one single object. For example:
+     * Insert the entity, or update its updatable properties if an entity of 
+     * the same id exists, by one upsert statement of dialect. For example:
      * <code>
-     * User user = db.queryForObject("select * from User where name=?", "Michael");
+     * db.save(user);
      * </code>
      * 
-     * @param sql SQL query statement.
-     * @param args SQL query parameters.
-     * @return The only one single result, or null if no result.
+     * @param entity Entity object instance.
      */
-    public <T> T queryForObject(String sql, Object... args) {
-        log.info("Query for object: " + sql);
-        List<T> list = queryForList(sql, args);
-        if (list.isEmpty())
-            return null;
-        if (list.size() > 1)
-            throw new DbException("non-unique results.");
-        return list.get(0);
+    public void save(Object entity) {
+        EntityOperation<?> op = getEntityOperation(entity.getClass());
+        String sql = op.upsertSQL(dialect);
+        Object[] params = null;
+        try {
+            params = op.insertParams(entity);
+        }
+        catch (Exception e) {
+            throw new DbException(e);
+        }
+        Object idValue = params[op.insertIdIndex()];
+        update("save", op, writeTemplate(op, idValue), sql, params);
+        evictCache(op, idValue);
+        invalidateQueryCache(op.tableName);
+        try {
+            op.track(entity);
+        }
+        catch (Exception e) {
+            throw new DbException(e);
+        }
+        untrackOnRollback(op, entity);
     }
 
     /**
-     * Query for list. For example:
-     * <code>
-     * List&lt;User&gt; users = db.queryForList("select * from User where age>?", 20);
-     * </code>
+     * Insert or update entities by JDBC batch of upsert statements, as save 
+     * does for each entity. For MySQL, the affected rows of an entity is 1 if 
+     * inserted, 2 if updated, or 0 if unchanged.
      * 
-     * @param <T> Return type of list element.
-     * @param sql SQL query.
-     * @param params SQL parameters.
-     * @return List of query result.
+     * @param entities Entity object instances.
+     * @return Number of affected rows of each entity.
      */
-    @SuppressWarnings("unchecked")
-    public <T> List<T> queryForList(String sql, Object... params) {
-        log.info("Query for list: " + sql);
-        Matcher m = SELECT_FROM.matcher(sql);
-        if ( ! m.matches()) {
-            throw new DbException("SQL grammar error: " + sql);
+    public int[] saveAll(Collection<?> entities) {
+        int[] counts = batchEntities(entities.iterator(), BATCH_SAVE);
+        for (Object entity : entities) {
+            EntityOperation<?> op = getEntityOperation(entity.getClass());
+            try {
+                if (op.cache!=null)
+                    evictCache(op, op.getId(entity));
+                op.track(entity);
+                untrackOnRollback(op, entity);
+            }
+            catch (Exception e) {
+                throw new DbException(e);
+            }
         }
-        EntityOperation<?> op = getEntityOperationByEntityName(m.group(3));
-        return (List<T>) jdbcTemplate.query(sql, params, op.rowMapper);
+        return counts;
     }
 
     /**
-     * Get entity by its id.
+     * Update entities with all updatable properties by JDBC batch. Versions 
+     * of versioned entities are checked and increased as updateEntity does, 
+     * and all rows are sent before VersionConflictException is thrown with 
+     * conflicted entities. A row is not treated as conflicted if driver 
+     * returns Statement.SUCCESS_NO_INFO.
      * 
-     * @param <T> Entity class type.
-     * @param clazz Entity class type.
-     * @param idValue Id value.
-     * @return Entity instance, or null if no such entity.
+     * @param entities Entity object instances.
+     * @return Number of affected rows of each entity.
+     * @throws VersionConflictException If versions of some entities are changed.
      */
-    @SuppressWarnings("unchecked")
-    public <T> T getById(Class<T> clazz, Object idValue) {
-        EntityOperation<?> op = getEntityOperationByEntityName(clazz.getName());
-        SQLOperation sqlo = op.getById(idValue);
-        List<T> list = (List<T>) jdbcTemplate.query(sqlo.sql, sqlo.params, op.rowMapper);
-        if (list.isEmpty())
-            return null;
-        if (list.size()>1)
-            throw new DbException("non-unique results.");
-        return list.get(0);
+    public int[] updateEntities(Collection<?> entities) {
+        int[] counts = batchEntities(entities.iterator(), BATCH_UPDATE);
+        List<Object> conflicts = null;
+        int[] indexes = null;
+        int i = 0;
+        for (Object entity : entities) {
+            EntityOperation<?> op = getEntityOperation(entity.getClass());
+            try {
+                if (op.cache!=null)
+                    evictCache(op, op.getId(entity));
+                if (op.versionMapping!=null && counts[i]==0) {
+                    if (conflicts==null) {
+                        conflicts = new ArrayList<Object>();
+                        indexes = new int[16];
+                    }
+                    if (conflicts.size()==indexes.length)
+                        indexes = Arrays.copyOf(indexes, indexes.length * 2);
+                    indexes[conflicts.size()] = i;
+                    conflicts.add(entity);
+                }
+                else {
+                    op.incrementVersion(entity);
+                    op.track(entity);
+                    untrackOnRollback(op, entity);
+                }
+            }
+            catch (Exception e) {
+                throw new DbException(e);
+            }
+            i++;
+        }
+        if (conflicts!=null)
+            throw new VersionConflictException("Version conflict of " + conflicts.size() + " entities.",
+                    conflicts, Arrays.copyOf(indexes, conflicts.size()));
+        return counts;
     }
 
     /**
-     * Create an entity in database, writing all insertable properties.
-     * 
-     * @param entity Entity object instance.
+     * Insert or update entities in batches of batchSize, using the cached 
+     * insert or update statement of each entity class.
      */
-    public void create(Object entity) {
-        EntityOperation<?> op = getEntityOperation(entity.getClass());
-        SQLOperation sqlo = null;
+    static final int BATCH_CREATE = 0;
+    static final int BATCH_UPDATE = 1;
+    static final int BATCH_SAVE = 2;
+
+    static final String[] BATCH_OPERATIONS = { "createAll", "updateEntities", "saveAll" };
+
+    int[] batchEntities(Iterator<?> entities, int kind) {
+        int[] counts = new int[16];
+        int n = 0;
+        EntityOperation<?> op = null;
+        List<Object> batch = new ArrayList<Object>();
+        List<Object[]> batchArgs = new ArrayList<Object[]>();
+        while (entities.hasNext()) {
+            Object entity = entities.next();
+            if (op==null || op.entityClass!=entity.getClass()) {
+                if ( ! batchArgs.isEmpty()) {
+                    counts = appendCounts(counts, n, executeBatch(op, batch, batchArgs, kind));
+                    n += batchArgs.size();
+                    batch.clear();
+                    batchArgs.clear();
+                }
+                op = getEntityOperation(entity.getClass());
+            }
+            try {
+                batchArgs.add(kind==BATCH_UPDATE ? op.updateParams(entity) : op.insertParams(entity));
+            }
+            catch (Exception e) {
+                throw new DbException(e);
+            }
+            batch.add(entity);
+            if (batchArgs.size()==batchSize) {
+                counts = appendCounts(counts, n, executeBatch(op, batch, batchArgs, kind));
+                n += batchArgs.size();
+                batch.clear();
+                batchArgs.clear();
+            }
+        }
+        if ( ! batchArgs.isEmpty()) {
+            counts = appendCounts(counts, n, executeBatch(op, batch, batchArgs, kind));
+            n += batchArgs.size();
+        }
+        return n==counts.length ? counts : Arrays.copyOf(counts, n);
+    }
+
+    /**
+     * Execute batch of entities, and track created entities as create does. 
+     * Entities of update and save are tracked by their callers after all 
+     * batches.
+     */
+    int[] executeBatch(EntityOperation<?> op, List<Object> batch, List<Object[]> batchArgs, int kind) {
+        int[] counts = executeBatch(op, batchArgs, kind);
+        if (kind==BATCH_CREATE) {
+            for (Object entity : batch) {
+                try {
+                    op.track(entity);
+                }
+                catch (Exception e) {
+                    throw new DbException(e);
+                }
+                untrackOnRollback(op, entity);
+            }
+        }
+        return counts;
+    }
+
+    int[] executeBatch(EntityOperation<?> op, List<Object[]> batchArgs, int kind) {
+        invalidateQueryCache(op.tableName);
+        if ( ! op.sharded)
+            return executeBatch(jdbcTemplate, op, batchArgs, kind);
+        // split rows by shard and put counts back in order:
+        int idIndex = kind==BATCH_UPDATE ? batchArgs.get(0).length - 1 : op.insertIdIndex();
+        if (idIndex < 0)
+            throw new DbException("Id of sharded entity must be insertable.");
+        Map<JdbcTemplate, List<Integer>> groups = new LinkedHashMap<JdbcTemplate, List<Integer>>();
+        for (int i=0; i<batchArgs.size(); i++) {
+            JdbcTemplate shard = shardTemplate(op, batchArgs.get(i)[idIndex]);
+            List<Integer> rows = groups.get(shard);
+            if (rows==null) {
+                rows = new ArrayList<Integer>();
+                groups.put(shard, rows);
+            }
+            rows.add(i);
+        }
+        int[] counts = new int[batchArgs.size()];
+        for (Map.Entry<JdbcTemplate, List<Integer>> group : groups.entrySet()) {
+            List<Object[]> shardArgs = new ArrayList<Object[]>(group.getValue().size());
+            for (int i : group.getValue()) {
+                shardArgs.add(batchArgs.get(i));
+            }
+            int[] shardCounts = executeBatch(group.getKey(), op, shardArgs, kind);
+            for (int i=0; i<shardCounts.length; i++) {
+                counts[group.getValue().get(i)] = shardCounts[i];
+            }
+        }
+        return counts;
+    }
+
+    int[] executeBatch(JdbcTemplate template, EntityOperation<?> op, List<Object[]> batchArgs, int kind) {
+        String sql = kind==BATCH_CREATE ? op.insertSQL() : (kind==BATCH_UPDATE ? op.updateSQL() : op.upsertSQL(dialect));
+        OperationProbe probe = probe(BATCH_OPERATIONS[kind], op, sql, null);
+        Throwable error = null;
         try {
-            sqlo = op.insertEntity(entity);
+            markWrite();
+            if (kind==BATCH_CREATE && extendedInsert)
+                return extendedInsert(template, op, batchArgs);
+            return batchUpdate(template, sql, batchArgs);
         }
-        catch (Exception e) {
-            throw new RuntimeException(e);
+        catch (RuntimeException e) {
+            error = e;
+            throw e;
+        }
+        finally {
+            complete(probe, batchArgs.size(), error);
+        }
+    }
+
+    /**
+     * Insert rows by multi-row "insert ... values (...),(...)" statements. Rows 
+     * are split into chunks under maxStatementBytes and sent by the cached 
+     * statements of batchSize rows and fixed smaller row counts; the rest rows 
+     * are sent as JDBC batch.
+     */
+    int[] extendedInsert(JdbcTemplate template, EntityOperation<?> op, List<Object[]> rows) {
+        int[] counts = new int[rows.size()];
+        String sql = op.insertSQL();
+        int rowSQLBytes = sql.length() - sql.lastIndexOf(" values (") - 7;
+        int maxRows = batchSize;
+        int columns = rows.isEmpty() ? 0 : rows.get(0).length;
+        if (columns > 0)
+            maxRows = Math.min(maxRows, MAX_PARAMETERS / columns);
+        int[] tiers = EntityOperation.multiInsertRows(maxRows);
+        int from = 0;
+        while (from < rows.size()) {
+            // find rows of chunk:
+            int bytes = sql.length();
+            int count = 0;
+            while (from + count < rows.size() && count < maxRows) {
+                int rowBytes = rowSQLBytes;
+                for (Object arg : rows.get(from + count)) {
+                    rowBytes += Utils.estimateBytes(arg);
+                }
+                if (count > 0 && bytes + rowBytes > maxStatementBytes)
+                    break;
+                bytes += rowBytes;
+                count++;
+            }
+            // send chunk by statements of fixed rows:
+            int end = from + count;
+            for (int rowsOfStatement : tiers) {
+                if (rowsOfStatement==1)
+                    break;
+                while (end - from >= rowsOfStatement) {
+                    int n = template.update(op.multiInsertSQL(rowsOfStatement), op.multiInsertParams(rows, from, rowsOfStatement));
+                    Arrays.fill(counts, from, from + rowsOfStatement, n==rowsOfStatement ? 1 : Statement.SUCCESS_NO_INFO);
+                    from += rowsOfStatement;
+                }
+            }
+            if (from < end) {
+                int[] batchCounts = batchUpdate(template, sql, rows.subList(from, end));
+                System.arraycopy(batchCounts, 0, counts, from, batchCounts.length);
+                from = end;
+            }
+        }
+        return counts;
+    }
+
+    int[] batchUpdate(JdbcTemplate template, String sql, List<Object[]> batchArgs) {
+        return template.batchUpdate(sql, new BatchArgumentsSetter(batchArgs));
+    }
+
+    int[] appendCounts(int[] counts, int n, int[] batchCounts) {
+        if (n + batchCounts.length > counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(counts.length * 2, n + batchCounts.length));
+        }
+        System.arraycopy(batchCounts, 0, counts, n, batchCounts.length);
+        return counts;
+    }
+
+    /**
+     * Group ids by JdbcTemplate to write, which is the primary if entity is 
+     * not sharded.
+     */
+    Map<JdbcTemplate, List<Object>> groupByShard(EntityOperation<?> op, Collection<?> idValues) {
+        Map<JdbcTemplate, List<Object>> groups = new LinkedHashMap<JdbcTemplate, List<Object>>();
+        if ( ! op.sharded) {
+            groups.put(jdbcTemplate, new ArrayList<Object>(idValues));
+            return groups;
+        }
+        for (Object idValue : idValues) {
+            JdbcTemplate shard = shardTemplate(op, idValue);
+            List<Object> ids = groups.get(shard);
+            if (ids==null) {
+                ids = new ArrayList<Object>();
+                groups.put(shard, ids);
+            }
+            ids.add(idValue);
         }
-        jdbcTemplate.update(sqlo.sql, sqlo.params);
+        return groups;
     }
 
     /**
@@ -288,11 +1950,72 @@ public class Db {
     public void deleteById(Class<?> clazz, Object idValue) {
         EntityOperation<?> op = getEntityOperation(clazz);
         SQLOperation sqlo = op.deleteById(idValue);
-        jdbcTemplate.update(sqlo.sql, sqlo.params);
+        update("deleteById", op, writeTemplate(op, idValue), sqlo.sql, sqlo.params);
+        evictCache(op, idValue);
+        invalidateQueryCache(op.tableName);
+    }
+
+    /**
+     * Delete entities by their id properties.
+     * 
+     * @param entities Entity object instances.
+     * @return Number of deleted rows.
+     */
+    public int deleteEntities(Collection<?> entities) {
+        Map<Class<?>, List<Object>> idValues = new LinkedHashMap<Class<?>, List<Object>>();
+        for (Object entity : entities) {
+            EntityOperation<?> op = getEntityOperation(entity.getClass());
+            List<Object> ids = idValues.get(op.entityClass);
+            if (ids==null) {
+                ids = new ArrayList<Object>();
+                idValues.put(op.entityClass, ids);
+            }
+            try {
+                ids.add(op.getId(entity));
+            }
+            catch (Exception e) {
+                throw new DbException(e);
+            }
+        }
+        int n = 0;
+        for (Class<?> clazz : idValues.keySet()) {
+            n += deleteByIds(clazz, idValues.get(clazz));
+        }
+        for (Object entity : entities) {
+            getEntityOperation(entity.getClass()).untrack(entity);
+        }
+        return n;
+    }
+
+    /**
+     * Delete entities by their id values, using "delete ... where id in (?,?,...)" 
+     * statements of at most maxInListSize values. Tracked entity instances 
+     * are not known by id, so use deleteEntities to untrack them.
+     * 
+     * @param clazz Entity class type.
+     * @param idValues Id values.
+     * @return Number of deleted rows.
+     */
+    public int deleteByIds(Class<?> clazz, Collection<?> idValues) {
+        EntityOperation<?> op = getEntityOperation(clazz);
+        int n = 0;
+        for (Map.Entry<JdbcTemplate, List<Object>> group : groupByShard(op, idValues).entrySet()) {
+            Object[] ids = group.getValue().toArray();
+            for (int from=0; from<ids.length; from+=maxInListSize) {
+                Object[] chunk = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + maxInListSize));
+                SQLOperation sqlo = op.deleteByIds(chunk);
+                n += update("deleteByIds", op, group.getKey(), sqlo.sql, sqlo.params);
+                evictCacheAll(op, chunk);
+                invalidateQueryCache(op.tableName);
+            }
+        }
+        return n;
     }
 
     /**
-     * Query for limited list. For example:
+     * Query for limited list. On sharded table, each shard returns first + max 
+     * rows which are merged by the "order by" columns before limit, and a 
+     * query ordered by an expression is rejected. For example:
      * <code>
      * // first 5 users:
      * List&lt;User&gt; users = db.queryForList("select * from User where age>?", 0, 5, 20);
@@ -305,11 +2028,111 @@ public class Db {
      * @param params SQL parameters.
      * @return List of query result.
      */
+    @SuppressWarnings("unchecked")
     public <T> List<T> queryForLimitedList(String sql, int first, int max, Object... args) {
-        log.info("Query for limited list (first=" + first + ", max=" + max + "): " + sql);
+        if (log.isDebugEnabled())
+            log.debug("Query for limited list (first=" + first + ", max=" + max + "): " + sql);
+        if (isSharded(sql)) {
+            // check order before query:
+            String[] orderBy = getSqlInfo(sql).orderBy;
+            Comparator<T> comparator = orderBy==null ? null : ((EntityOperation<T>) getEntityOperationBySQL(sql)).orderByComparator(orderBy);
+            List<T> list = queryForList(buildLimitedSelect(sql), buildLimitedArgs(args, 0, first + max));
+            // rows of each shard are sorted, so sort merges the runs:
+            if (comparator!=null)
+                Collections.sort(list, comparator);
+            if (list.size() <= first)
+                return new ArrayList<T>();
+            return new ArrayList<T>(list.subList(first, Math.min(list.size(), first + max)));
+        }
         return queryForList(buildLimitedSelect(sql), buildLimitedArgs(args, first, max));
     }
 
+    /**
+     * Query for page by keyset pagination ordered by id. Unlike 
+     * queryForLimitedList, each page costs the same at any depth. For example:
+     * <code>
+     * // first 20 users:
+     * Page&lt;User&gt; page = db.queryForPage(User.class, null, 20);
+     * // next 20 users:
+     * page = db.queryForPage(User.class, page.getNext(), 20);
+     * </code>
+     * 
+     * @param <T> Entity class type.
+     * @param clazz Entity class type.
+     * @param after Continuation token of previous page, or null for the first page.
+     * @param max Max results.
+     * @return Page of query result.
+     */
+    public <T> Page<T> queryForPage(Class<T> clazz, Object after, int max) {
+        return queryForPage(clazz, null, null, after, max);
+    }
+
+    /**
+     * Query for page by keyset pagination. For example:
+     * <code>
+     * Page&lt;User&gt; page = db.queryForPage(User.class, "age>?", "name desc", null, 20, 20);
+     * </code>
+     * 
+     * @param <T> Entity class type.
+     * @param clazz Entity class type.
+     * @param where Where condition without "where", or null if no condition.
+     * @param orderBy Sort property with optional " desc", or null to sort by id. 
+     *                Rows of the same sort value are ordered by id.
+     * @param after Continuation token of previous page, or null for the first page.
+     * @param max Max results.
+     * @param args SQL parameters of where condition.
+     * @return Page of query result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Page<T> queryForPage(Class<T> clazz, String where, String orderBy, Object after, int max, Object... args) {
+        if (max < 1)
+            throw new IllegalArgumentException("Max results must be positive.");
+        EntityOperation<T> op = (EntityOperation<T>) getEntityOperation(clazz);
+        String sortProperty = orderBy;
+        boolean desc = false;
+        if (orderBy!=null && orderBy.toLowerCase().endsWith(" desc")) {
+            sortProperty = orderBy.substring(0, orderBy.length() - 5).trim();
+            desc = true;
+        }
+        SQLOperation sqlo = op.queryForPage(where, sortProperty, desc, after, max + 1, args);
+        if (log.isDebugEnabled())
+            log.debug("Query for page (max=" + max + "): " + sqlo.sql);
+        List<T> list = null;
+        if (op.sharded) {
+            // merge sorted rows of shards and keep the first max + 1:
+            OperationProbe probe = probe("queryForPage", op, sqlo.sql, sqlo.params);
+            Throwable error = null;
+            try {
+                list = new ArrayList<T>();
+                for (List<T> rows : queryShards(sqlo.sql, sqlo.params, null, op, probe)) {
+                    list.addAll(rows);
+                }
+                Collections.sort(list, op.keysetComparator(sortProperty, desc));
+                if (list.size() > max + 1)
+                    list = list.subList(0, max + 1);
+            }
+            catch (RuntimeException e) {
+                error = e;
+                throw e;
+            }
+            finally {
+                complete(probe, list==null ? 0 : list.size(), error);
+            }
+        }
+        else {
+            list = select("queryForPage", op, readTemplate(sqlo.sql), sqlo.sql, sqlo.params);
+        }
+        if (list.size() <= max)
+            return new Page<T>(list, null);
+        list = list.subList(0, max);
+        try {
+            return new Page<T>(list, op.getKeyset(list.get(max - 1), sortProperty));
+        }
+        catch (Exception e) {
+            throw new DbException(e);
+        }
+    }
+
     String buildLimitedSelect(String select) {
         StringBuilder sb = new StringBuilder(select.length() + 20);
         boolean forUpdate = select.toLowerCase().endsWith(" for update");
@@ -336,3 +2159,23 @@ public class Db {
         return newArgs;
     }
 }
+
+class BatchArgumentsSetter implements BatchPreparedStatementSetter {
+
+    final List<Object[]> batchArgs;
+
+    public BatchArgumentsSetter(List<Object[]> batchArgs) {
+        this.batchArgs = batchArgs;
+    }
+
+    public void setValues(PreparedStatement ps, int i) throws SQLException {
+        Object[] args = batchArgs.get(i);
+        for (int n=0; n<args.length; n++) {
+            StatementCreatorUtils.setParameterValue(ps, n + 1, SqlTypeValue.TYPE_UNKNOWN, args[n]);
+        }
+    }
+
+    public int getBatchSize() {
+        return batchArgs.size();
+    }
+}
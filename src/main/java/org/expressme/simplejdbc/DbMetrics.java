@@ -0,0 +1,62 @@
+package org.expressme.simplejdbc;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of statistics per entity and operation. For example:
+ * <code>
+ * DbMetrics metrics = new DbMetrics();
+ * db.setOperationListener(metrics);
+ * ...
+ * OperationStats stats = metrics.getStats("User", "getById");
+ * </code>
+ * 
+ * @author Michael Liao
+ */
+public class DbMetrics implements OperationListener {
+
+    final ConcurrentHashMap<String, OperationStats> stats = new ConcurrentHashMap<String, OperationStats>();
+
+    public void operationCompleted(String entityName, String operation, String sql, Object[] params, long elapsedNanos, long mappingNanos, int rows, Throwable error) {
+        String key = key(entityName, operation);
+        OperationStats s = stats.get(key);
+        if (s==null) {
+            s = new OperationStats();
+            OperationStats old = stats.putIfAbsent(key, s);
+            if (old!=null)
+                s = old;
+        }
+        s.record(elapsedNanos, mappingNanos, rows, error!=null);
+    }
+
+    static String key(String entityName, String operation) {
+        return (entityName==null ? "?" : entityName) + "." + operation;
+    }
+
+    /**
+     * Get statistics of operation of entity.
+     * 
+     * @param entityName Simple name of entity class.
+     * @param operation Name of operation.
+     * @return Statistics, or null if no such operation was recorded.
+     */
+    public OperationStats getStats(String entityName, String operation) {
+        return stats.get(key(entityName, operation));
+    }
+
+    /**
+     * Get all statistics keyed by "entity.operation".
+     * 
+     * @return Sorted map of statistics.
+     */
+    public Map<String, OperationStats> getAllStats() {
+        return new TreeMap<String, OperationStats>(stats);
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+}
@@ -0,0 +1,23 @@
+package org.expressme.simplejdbc;
+
+/**
+ * SQL dialect of database, which builds statements not covered by standard 
+ * SQL.
+ * 
+ * @author Michael Liao
+ */
+public interface Dialect {
+
+    /**
+     * Build statement which inserts a row, or updates the existing row of the 
+     * same id. Parameters of the statement are values of insert columns.
+     * 
+     * @param tableName Table name.
+     * @param idColumn Column name of id.
+     * @param insertColumns Column names to insert, which include id.
+     * @param updateColumns Column names to update if row exists, which may be empty.
+     * @return Upsert statement.
+     */
+    String upsertSQL(String tableName, String idColumn, String[] insertColumns, String[] updateColumns);
+
+}
@@ -0,0 +1,96 @@
+package org.expressme.simplejdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of entities by id in front of getById, with size and TTL based
+ * eviction. Entities are copied when put and when get, so callers could
+ * not change the cached instances.
+ *
+ * @author Michael Liao
+ *
+ * @param <T> Entity class type.
+ */
+class EntityCache<T> {
+
+    final EntityOperation<T> op;
+    final long ttlMillis;
+    final LruCache<Object, Entry<T>> cache;
+    final LongAdder expirations = new LongAdder();
+
+    /**
+     * Increased by every invalidation, so a query which started before an
+     * invalidation does not put its stale result into cache.
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    EntityCache(EntityOperation<T> op, int maxSize, long ttlMillis) {
+        this.op = op;
+        this.ttlMillis = ttlMillis;
+        this.cache = new LruCache<Object, Entry<T>>(maxSize);
+    }
+
+    T get(Object idValue) {
+        Object key = key(idValue);
+        Entry<T> entry = cache.get(key);
+        if (entry==null)
+            return null;
+        if (entry.expires < System.currentTimeMillis()) {
+            cache.remove(key);
+            expirations.increment();
+            return null;
+        }
+        return op.copy(entry.entity);
+    }
+
+    long generation() {
+        return generation.get();
+    }
+
+    void put(Object idValue, T entity, long generation) {
+        if (generation!=this.generation.get())
+            return;
+        Object key = key(idValue);
+        cache.put(key, new Entry<T>(op.copy(entity), System.currentTimeMillis() + ttlMillis));
+        // an invalidation between check and put may have missed this entry:
+        if (generation!=this.generation.get())
+            cache.remove(key);
+    }
+
+    void evict(Object idValue) {
+        generation.incrementAndGet();
+        cache.remove(key(idValue));
+    }
+
+    void clear() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    CacheStats getStats() {
+        long expired = expirations.sum();
+        return new CacheStats(cache.hits.sum() - expired, cache.misses.sum() + expired, cache.evictions.sum() + expired, cache.size());
+    }
+
+    /**
+     * Integral ids are cached as Long, so getById(User.class, 1) and an
+     * entity whose id is 1L share the same key.
+     */
+    static Object key(Object idValue) {
+        if (idValue instanceof Integer || idValue instanceof Short || idValue instanceof Byte)
+            return Long.valueOf(((Number) idValue).longValue());
+        return idValue;
+    }
+
+    static class Entry<T> {
+
+        final T entity;
+        final long expires;
+
+        Entry(T entity, long expires) {
+            this.entity = entity;
+            this.expires = expires;
+        }
+    }
+}
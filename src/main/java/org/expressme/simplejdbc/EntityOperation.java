@@ -5,15 +5,21 @@ import java.lang.reflect.Method;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
-import javax.persistence.Column;
 import javax.persistence.Id;
 import javax.persistence.Transient;
+import javax.persistence.Version;
 
 import org.springframework.jdbc.core.RowMapper;
 
@@ -30,36 +36,101 @@ class EntityOperation<T> {
     final Class<T> entityClass;
     final String idProperty;
     final Map<String, PropertyMapping> mappings;
-    final RowMapper<T> rowMapper;
+
+    /**
+     * Mapping of @Version property, or null if entity is not versioned.
+     */
+    final PropertyMapping versionMapping;
+    final Map<String, PropertyMapping> columnMappings;
+
+    /**
+     * Registered converters by property type.
+     */
+    final Map<Class<?>, Converter<?>> converters;
+
+    /**
+     * Cache of getById, or null if not enabled.
+     */
+    volatile EntityCache<T> cache = null;
 
     public EntityOperation(Class<T> entityClass) {
+        this(entityClass, Collections.<Class<?>, Converter<?>>emptyMap());
+    }
+
+    public EntityOperation(Class<T> entityClass, Map<Class<?>, Converter<?>> converters) {
         this.entityClass = entityClass;
+        this.converters = converters;
         this.tableName = entityClass.getSimpleName();
         Map<String, Method> getters = Utils.findPublicGetters(entityClass);
         Map<String, Method> setters = Utils.findPublicSetters(entityClass);
         this.idProperty = findIdProperty(getters);
         this.mappings = getPropertyMappings(getters, setters);
-        this.rowMapper = createRowMapper();
+        this.columnMappings = getColumnMappings(this.mappings);
+        this.versionMapping = findVersionMapping(getters);
+    }
+
+    /**
+     * True if rows are stored in shards located by id.
+     */
+    volatile boolean sharded = false;
+
+    /**
+     * Snapshots of loaded entities for dirty tracking, or null if not enabled.
+     */
+    volatile SnapshotRegistry snapshots = null;
+
+    /**
+     * Build all cached SQL statements now instead of on first use.
+     */
+    void prepare() {
+        selectByIdSQL();
+        deleteByIdSQL();
+        insertSQL();
+        updateSQL();
     }
 
+    /**
+     * Create a row mapper for one query. The mapper resolves the column index
+     * to property plan once per ResultSet, and plans are shared between
+     * queries of the same column signature.
+     */
     RowMapper<T> createRowMapper() {
+        return createRowMapper(null);
+    }
+
+    /**
+     * Create a row mapper which adds mapping time to probe if not null.
+     */
+    RowMapper<T> createRowMapper(final OperationProbe probe) {
         return new RowMapper<T>() {
+            ResultSet resultSet = null;
+            PropertyMapping[] plan = null;
+
             public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+                long start = probe==null ? 0L : System.nanoTime();
+                if (rs!=resultSet) {
+                    plan = getColumnPlan(rs.getMetaData());
+                    resultSet = rs;
+                }
                 try {
                     T t = entityClass.newInstance();
-                    ResultSetMetaData meta = rs.getMetaData();
-                    int columns = meta.getColumnCount();
-                    for (int i=1; i<=columns; i++) {
-                        Object value = rs.getObject(i);
-                        if (value!=null) {
-                            PropertyMapping pm = mappings.get(meta.getColumnName(i));
-                            if (pm!=null) {
-                                pm.set(t, value);
-                            }
+                    for (int i=1; i<plan.length; i++) {
+                        PropertyMapping pm = plan[i];
+                        if (pm!=null) {
+                            pm.read(rs, i, t);
                         }
                     }
+                    track(t);
+                    if (probe!=null)
+                        probe.mappingNanos.addAndGet(System.nanoTime() - start);
                     return t;
                 }
+                catch (SQLException e) {
+                    throw e;
+                }
+                catch (RuntimeException e) {
+                    throw e;
+                }
                 catch (InvocationTargetException e) {
                     throw new RuntimeException(e.getCause());
                 }
@@ -70,6 +141,154 @@ class EntityOperation<T> {
         };
     }
 
+    static final int MAX_COLUMN_PLANS = 256;
+
+    final Map<String, PropertyMapping[]> columnPlans = new ConcurrentHashMap<String, PropertyMapping[]>();
+
+    /**
+     * Get property mappings indexed by column index (starts from 1), or null
+     * at index if the column has no mapped property.
+     */
+    PropertyMapping[] getColumnPlan(ResultSetMetaData meta) throws SQLException {
+        int columns = meta.getColumnCount();
+        String[] labels = new String[columns];
+        StringBuilder sb = new StringBuilder(columns * 12);
+        for (int i=0; i<columns; i++) {
+            labels[i] = meta.getColumnLabel(i+1);
+            sb.append(labels[i]).append(',');
+        }
+        String signature = sb.toString();
+        PropertyMapping[] plan = columnPlans.get(signature);
+        if (plan==null) {
+            plan = new PropertyMapping[columns+1];
+            for (int i=0; i<columns; i++) {
+                plan[i+1] = columnMappings.get(labels[i].toLowerCase());
+            }
+            if (columnPlans.size() < MAX_COLUMN_PLANS) {
+                columnPlans.put(signature, plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Property mappings by lower-case column name, or by property name if no
+     * such column name.
+     */
+    Map<String, PropertyMapping> getColumnMappings(Map<String, PropertyMapping> mappings) {
+        Map<String, PropertyMapping> map = new HashMap<String, PropertyMapping>();
+        for (String property : mappings.keySet()) {
+            map.put(property.toLowerCase(), mappings.get(property));
+        }
+        for (PropertyMapping pm : mappings.values()) {
+            map.put(pm.columnName.toLowerCase(), pm);
+        }
+        return map;
+    }
+
+    /**
+     * Copy all properties to a new entity instance, with mutable dates and 
+     * byte arrays cloned.
+     */
+    T copy(T entity) {
+        try {
+            T t = entityClass.newInstance();
+            for (PropertyMapping pm : mappings.values()) {
+                pm.accessor.set(t, snapshotValue(pm.accessor.get(entity)));
+            }
+            return t;
+        }
+        catch (Exception e) {
+            throw new DbException("Could not copy entity " + entityClass.getName(), e);
+        }
+    }
+
+    /**
+     * Record values of updatable properties of entity as its clean state if
+     * dirty tracking is enabled.
+     */
+    void track(Object entity) throws Exception {
+        SnapshotRegistry snapshots = this.snapshots;
+        if (snapshots!=null) {
+            updateSQL();
+            Object[] snapshot = new Object[UPDATE_MAPPINGS.length];
+            for (int i=0; i<UPDATE_MAPPINGS.length; i++) {
+                snapshot[i] = snapshotValue(UPDATE_MAPPINGS[i].accessor.get(entity));
+            }
+            snapshots.put(entity, snapshot);
+        }
+    }
+
+    void trackAll(List<T> entities) throws Exception {
+        if (this.snapshots!=null) {
+            for (T entity : entities) {
+                track(entity);
+            }
+        }
+    }
+
+    /**
+     * Record values of specified properties of a tracked entity as clean.
+     */
+    void trackProperties(Object entity, String... properties) throws Exception {
+        SnapshotRegistry snapshots = this.snapshots;
+        Object[] snapshot = snapshots==null ? null : snapshots.get(entity);
+        if (snapshot!=null) {
+            for (String property : properties) {
+                for (int i=0; i<UPDATE_PROPERTIES.length; i++) {
+                    if (UPDATE_PROPERTIES[i].equals(property)) {
+                        snapshot[i] = snapshotValue(UPDATE_MAPPINGS[i].accessor.get(entity));
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    void untrack(Object entity) {
+        SnapshotRegistry snapshots = this.snapshots;
+        if (snapshots!=null)
+            snapshots.remove(entity);
+    }
+
+    /**
+     * Copy mutable values so in-place changes are detected.
+     */
+    static Object snapshotValue(Object value) {
+        if (value instanceof java.util.Date)
+            return ((java.util.Date) value).clone();
+        if (value instanceof byte[])
+            return ((byte[]) value).clone();
+        return value;
+    }
+
+    List<T> copyAll(List<T> entities) {
+        List<T> list = new ArrayList<T>(entities.size());
+        for (T entity : entities) {
+            list.add(copy(entity));
+        }
+        return list;
+    }
+
+    /**
+     * Estimate memory bytes of entities.
+     */
+    long estimateBytes(List<T> entities) {
+        long n = 16L + 8L * entities.size();
+        for (T entity : entities) {
+            n += 16L;
+            for (PropertyMapping pm : mappings.values()) {
+                try {
+                    n += Utils.estimateBytes(pm.accessor.get(entity));
+                }
+                catch (Exception e) {
+                    n += 16L;
+                }
+            }
+        }
+        return n;
+    }
+
     String findIdProperty(Map<String, Method> getters) {
         String idProperty = null;
         for (String property : getters.keySet()) {
@@ -86,6 +305,24 @@ class EntityOperation<T> {
         return idProperty;
     }
 
+    PropertyMapping findVersionMapping(Map<String, Method> getters) {
+        PropertyMapping versionMapping = null;
+        for (String property : getters.keySet()) {
+            Method getter = getters.get(property);
+            if (getter.isAnnotationPresent(Version.class)) {
+                if (versionMapping!=null)
+                    throw new DbException("Duplicate @Version detected.");
+                Class<?> type = getter.getReturnType();
+                if (type!=long.class && type!=Long.class && type!=int.class && type!=Integer.class)
+                    throw new DbException("Unsupported type of @Version: " + type.getName());
+                if (property.equals(idProperty))
+                    throw new DbException("@Id could not be @Version.");
+                versionMapping = mappings.get(property);
+            }
+        }
+        return versionMapping;
+    }
+
     Map<String, PropertyMapping> getPropertyMappings(Map<String, Method> getters, Map<String, Method> setters) {
         Map<String, PropertyMapping> mappings = new HashMap<String, PropertyMapping>();
         for (String property : getters.keySet()) {
@@ -95,7 +332,7 @@ class EntityOperation<T> {
             Method setter = setters.get(property);
             if (setter==null)
                 throw new DbException("Missing setter while getter " + getter.getName() + " found.");
-            mappings.put(property, new PropertyMapping(getter, setter));
+            mappings.put(property, new PropertyMapping(getter, setter, converters));
         }
         return mappings;
     }
@@ -105,10 +342,235 @@ class EntityOperation<T> {
     String SQL_SELECT_BY_ID = null;
 
     SQLOperation getById(Object idValue) {
+        return new SQLOperation(selectByIdSQL(), idValue);
+    }
+
+    String selectByIdSQL() {
         if (SQL_SELECT_BY_ID==null) {
             SQL_SELECT_BY_ID = "select * from " + this.tableName + " where " + mappings.get(this.idProperty).columnName + "=?";
         }
-        return new SQLOperation(SQL_SELECT_BY_ID, idValue);
+        return SQL_SELECT_BY_ID;
+    }
+
+    //-- select * from TABLE where id in (?,?,?) ------------------------------
+
+    /**
+     * Sizes of IN lists of getByIds. A chunk of ids is padded by its last id 
+     * to the next size, so only a few statements are ever prepared.
+     */
+    static final int[] SELECT_IN_SIZES = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
+
+    final String[] selectByIdsSQLs = new String[SELECT_IN_SIZES.length];
+
+    /**
+     * Get the largest IN list size which is not greater than max.
+     */
+    static int maxSelectInSize(int max) {
+        int size = SELECT_IN_SIZES[0];
+        for (int n : SELECT_IN_SIZES) {
+            if (n <= max)
+                size = n;
+        }
+        return size;
+    }
+
+    SQLOperation getByIds(Object[] idValues) {
+        int index = 0;
+        while (SELECT_IN_SIZES[index] < idValues.length) {
+            index++;
+            if (index==SELECT_IN_SIZES.length)
+                throw new IllegalArgumentException("Too many ids: " + idValues.length);
+        }
+        int size = SELECT_IN_SIZES[index];
+        String sql = selectByIdsSQLs[index];
+        if (sql==null) {
+            StringBuilder sb = new StringBuilder(64 + size * 2);
+            sb.append("select * from ").append(this.tableName).append(" where ").append(mappings.get(this.idProperty).columnName).append(" in (");
+            for (int i=0; i<size; i++) {
+                sb.append("?,");
+            }
+            // set last ',' to ')':
+            sb.setCharAt(sb.length()-1, ')');
+            sql = sb.toString();
+            selectByIdsSQLs[index] = sql;
+        }
+        Object[] params = Arrays.copyOf(idValues, size);
+        Arrays.fill(params, idValues.length, size, idValues[idValues.length-1]);
+        return new SQLOperation(sql, params);
+    }
+
+    //-- select a,b,c from TABLE where ... -----------------------------------
+
+    static final int MAX_PROJECTIONS = 256;
+
+    /**
+     * Projections keyed by projection class or by list of property names.
+     */
+    final Map<Object, Projection<?>> projections = new ConcurrentHashMap<Object, Projection<?>>();
+
+    @SuppressWarnings("unchecked")
+    <P> Projection<P> projection(Class<P> projectionClass) {
+        Projection<P> projection = (Projection<P>) projections.get(projectionClass);
+        if (projection==null) {
+            projection = new Projection<P>(this, projectionClass);
+            if (projections.size() < MAX_PROJECTIONS) {
+                projections.put(projectionClass, projection);
+            }
+        }
+        return projection;
+    }
+
+    @SuppressWarnings("unchecked")
+    Projection<T> projection(String... properties) {
+        Projection<T> projection = (Projection<T>) projections.get(Arrays.asList(properties));
+        if (projection==null) {
+            projection = new Projection<T>(this, properties.clone());
+            if (projections.size() < MAX_PROJECTIONS) {
+                projections.put(Arrays.asList(properties.clone()), projection);
+            }
+        }
+        return projection;
+    }
+
+    //-- select * from TABLE where (...) and id>? order by id limit ? ---------
+
+    /**
+     * Build keyset page query ordered by sort property (or id if null) then id.
+     * The "after" key is the id value if ordered by id, or an array of sort 
+     * value and id value. Null sort values are first in ascending order and 
+     * last in descending order.
+     */
+    SQLOperation queryForPage(String where, String sortProperty, boolean desc, Object after, int limit, Object[] args) {
+        PropertyMapping id = mappings.get(this.idProperty);
+        PropertyMapping sort = sortProperty==null ? id : mappings.get(sortProperty);
+        if (sort==null)
+            throw new DbException("Unknown sort property: " + sortProperty);
+        String compare = desc ? "<" : ">";
+        String order = desc ? " desc" : "";
+        boolean hasWhere = where!=null && where.length() > 0;
+        StringBuilder sb = new StringBuilder(128);
+        List<Object> params = new ArrayList<Object>(args.length + 4);
+        sb.append("select * from ").append(this.tableName);
+        if (hasWhere) {
+            sb.append(" where (").append(where).append(')');
+            params.addAll(Arrays.asList(args));
+        }
+        if (after!=null) {
+            sb.append(hasWhere ? " and " : " where ");
+            if (sort==id) {
+                sb.append(id.columnName).append(compare).append('?');
+                params.add(after);
+            }
+            else {
+                // null sort values come first, as compareValues does:
+                Object[] keys = (Object[]) after;
+                String column = sort.columnName;
+                if (keys[0]==null) {
+                    sb.append("((").append(column).append(" is null and ").append(id.columnName).append(compare).append("?)");
+                    if ( ! desc)
+                        sb.append(" or ").append(column).append(" is not null");
+                    sb.append(')');
+                    params.add(keys[1]);
+                }
+                else {
+                    sb.append('(').append(column).append(compare).append("? or (")
+                      .append(column).append("=? and ").append(id.columnName).append(compare).append("?)");
+                    if (desc)
+                        sb.append(" or ").append(column).append(" is null");
+                    sb.append(')');
+                    params.add(keys[0]);
+                    params.add(keys[0]);
+                    params.add(keys[1]);
+                }
+            }
+        }
+        sb.append(" order by ");
+        if (sort!=id) {
+            sb.append(sort.columnName).append(order).append(',');
+        }
+        sb.append(id.columnName).append(order).append(" limit ?");
+        params.add(limit);
+        return new SQLOperation(sb.toString(), params.toArray());
+    }
+
+    /**
+     * Compare entities in the order of keyset page.
+     */
+    Comparator<T> keysetComparator(String sortProperty, final boolean desc) {
+        final PropertyMapping id = mappings.get(this.idProperty);
+        final PropertyMapping sort = sortProperty==null ? id : mappings.get(sortProperty);
+        return new Comparator<T>() {
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            public int compare(T t1, T t2) {
+                try {
+                    int n = compareValues((Comparable) sort.get(t1), (Comparable) sort.get(t2));
+                    if (n==0 && sort!=id)
+                        n = compareValues((Comparable) id.get(t1), (Comparable) id.get(t2));
+                    return desc ? -n : n;
+                }
+                catch (Exception e) {
+                    throw new DbException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Compare entities in the order of "order by" columns parsed by SqlInfo.
+     */
+    Comparator<T> orderByComparator(String[] orderBy) {
+        final PropertyMapping[] sorts = new PropertyMapping[orderBy.length];
+        final boolean[] descs = new boolean[orderBy.length];
+        for (int i=0; i<orderBy.length; i++) {
+            String column = orderBy[i];
+            if (column==null)
+                throw new DbException("Cannot merge shards ordered by expression.");
+            if (column.endsWith(" desc")) {
+                column = column.substring(0, column.length() - 5);
+                descs[i] = true;
+            }
+            sorts[i] = columnMappings.get(column.toLowerCase());
+            if (sorts[i]==null)
+                throw new DbException("Cannot merge shards ordered by column: " + column);
+        }
+        return new Comparator<T>() {
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            public int compare(T t1, T t2) {
+                try {
+                    for (int i=0; i<sorts.length; i++) {
+                        int n = compareValues((Comparable) sorts[i].get(t1), (Comparable) sorts[i].get(t2));
+                        if (n!=0)
+                            return descs[i] ? -n : n;
+                    }
+                    return 0;
+                }
+                catch (Exception e) {
+                    throw new DbException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Compare values with null first, as MySQL does.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static int compareValues(Comparable c1, Comparable c2) {
+        if (c1==null)
+            return c2==null ? 0 : -1;
+        if (c2==null)
+            return 1;
+        return c1.compareTo(c2);
+    }
+
+    /**
+     * Get the keyset of entity which is the "after" key of the next page.
+     */
+    Object getKeyset(Object entity, String sortProperty) throws Exception {
+        Object idValue = getId(entity);
+        if (sortProperty==null || sortProperty.equals(this.idProperty))
+            return idValue;
+        return new Object[] { mappings.get(sortProperty).get(entity), idValue };
     }
 
     //-- delete from TABLE where id=? -----------------------------------------
@@ -120,10 +582,38 @@ class EntityOperation<T> {
     }
 
     SQLOperation deleteById(Object idValue) {
+        return new SQLOperation(deleteByIdSQL(), idValue);
+    }
+
+    String deleteByIdSQL() {
         if (SQL_DELETE_BY_ID==null) {
             SQL_DELETE_BY_ID = "delete from " + this.tableName + " where " + mappings.get(this.idProperty).columnName + "=?";
         }
-        return new SQLOperation(SQL_DELETE_BY_ID, idValue);
+        return SQL_DELETE_BY_ID;
+    }
+
+    //-- delete from TABLE where id in (?,?,?) --------------------------------
+
+    final Map<Integer, String> deleteByIdsSQLs = new ConcurrentHashMap<Integer, String>();
+
+    SQLOperation deleteByIds(Object[] idValues) {
+        String sql = deleteByIdsSQLs.get(idValues.length);
+        if (sql==null) {
+            StringBuilder sb = new StringBuilder(64 + idValues.length * 2);
+            sb.append("delete from ").append(this.tableName).append(" where ").append(mappings.get(this.idProperty).columnName).append(" in (");
+            for (int i=0; i<idValues.length; i++) {
+                sb.append("?,");
+            }
+            // set last ',' to ')':
+            sb.setCharAt(sb.length()-1, ')');
+            sql = sb.toString();
+            deleteByIdsSQLs.put(idValues.length, sql);
+        }
+        return new SQLOperation(sql, idValues);
+    }
+
+    Object getId(Object entity) throws Exception {
+        return mappings.get(this.idProperty).get(entity);
     }
 
     //-- insert into TABLE (a,b,c) values (?,?,?) -----------------------------
@@ -132,6 +622,10 @@ class EntityOperation<T> {
     String[] INSERT_PROPERTIES = null;
 
     SQLOperation insertEntity(Object entity) throws Exception {
+        return new SQLOperation(insertSQL(), insertParams(entity));
+    }
+
+    String insertSQL() {
         if (SQL_INSERT==null) {
             StringBuilder sb = new StringBuilder(128);
             sb.append("insert into ").append(this.tableName).append(" (");
@@ -153,22 +647,184 @@ class EntityOperation<T> {
             }
             // set last ',' to ')':
             sb.setCharAt(sb.length()-1, ')');
-            SQL_INSERT = sb.toString();
             INSERT_PROPERTIES = insertableProperties.toArray(new String[insertableProperties.size()]);
+            SQL_INSERT = sb.toString();
+        }
+        return SQL_INSERT;
+    }
+
+    //-- insert into TABLE (a,b,c) values (?,?,?) on duplicate key update ... -
+
+    /**
+     * Upsert statements by dialect.
+     */
+    final Map<Dialect, String> upsertSQLs = new ConcurrentHashMap<Dialect, String>();
+
+    /**
+     * Get upsert statement of dialect, whose parameters are insertParams().
+     * Updatable properties which are also insertable are updated if row 
+     * exists.
+     */
+    String upsertSQL(Dialect dialect) {
+        String sql = upsertSQLs.get(dialect);
+        if (sql==null) {
+            if (versionMapping!=null)
+                throw new DbException("Could not save entity " + entityClass.getName() + " because it has @Version.");
+            if (insertIdIndex() < 0)
+                throw new DbException("Could not save entity " + entityClass.getName() + " because its id is not insertable.");
+            updateSQL();
+            String[] insertColumns = new String[INSERT_PROPERTIES.length];
+            for (int i=0; i<INSERT_PROPERTIES.length; i++) {
+                insertColumns[i] = mappings.get(INSERT_PROPERTIES[i]).columnName;
+            }
+            List<String> updateColumns = new ArrayList<String>(UPDATE_MAPPINGS.length);
+            for (PropertyMapping pm : UPDATE_MAPPINGS) {
+                if (pm.insertable)
+                    updateColumns.add(pm.columnName);
+            }
+            sql = dialect.upsertSQL(this.tableName, mappings.get(this.idProperty).columnName,
+                    insertColumns, updateColumns.toArray(new String[updateColumns.size()]));
+            upsertSQLs.put(dialect, sql);
+        }
+        return sql;
+    }
+
+    //-- insert into TABLE (a,b,c) values (?,?,?),(?,?,?),... ----------------
+
+    /**
+     * Row counts of cached multi-row insert statements below the max rows of 
+     * a batch, in descending order.
+     */
+    static final int[] MULTI_INSERT_ROWS = { 128, 16, 1 };
+
+    /**
+     * Get row counts of multi-row insert statements in descending order, 
+     * which starts with max rows of a batch so a full batch is sent by one 
+     * statement.
+     */
+    static int[] multiInsertRows(int maxRows) {
+        int n = 0;
+        while (n < MULTI_INSERT_ROWS.length && MULTI_INSERT_ROWS[n] >= maxRows) {
+            n++;
+        }
+        int[] rows = new int[MULTI_INSERT_ROWS.length - n + 1];
+        rows[0] = maxRows;
+        System.arraycopy(MULTI_INSERT_ROWS, n, rows, 1, MULTI_INSERT_ROWS.length - n);
+        return rows;
+    }
+
+    // multi-row insert statements keyed by row count:
+    final Map<Integer, String> multiInsertSQLs = new ConcurrentHashMap<Integer, String>();
+
+    String multiInsertSQL(int rows) {
+        String sql = multiInsertSQLs.get(rows);
+        if (sql==null) {
+            String insert = insertSQL();
+            String values = insert.substring(insert.lastIndexOf(" values (") + 8);
+            StringBuilder sb = new StringBuilder(insert.length() + (values.length() + 1) * (rows - 1));
+            sb.append(insert);
+            for (int i=1; i<rows; i++) {
+                sb.append(',').append(values);
+            }
+            sql = sb.toString();
+            multiInsertSQLs.put(rows, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Pack parameters of rows into one flat array.
+     */
+    Object[] multiInsertParams(List<Object[]> rows, int from, int count) {
+        int columns = INSERT_PROPERTIES.length;
+        Object[] params = new Object[count * columns];
+        for (int i=0; i<count; i++) {
+            System.arraycopy(rows.get(from + i), 0, params, i * columns, columns);
         }
+        return params;
+    }
+
+    /**
+     * Get index of id in insert parameters, or -1 if id is not insertable.
+     */
+    int insertIdIndex() {
+        insertSQL();
+        return Arrays.asList(INSERT_PROPERTIES).indexOf(this.idProperty);
+    }
+
+    Object[] insertParams(Object entity) throws Exception {
+        insertSQL();
         Object[] params = new Object[INSERT_PROPERTIES.length];
         for (int i=0; i<INSERT_PROPERTIES.length; i++) {
             params[i] = mappings.get(INSERT_PROPERTIES[i]).get(entity);
         }
-        return new SQLOperation(SQL_INSERT, params);
+        return params;
     }
 
     //-- update TABLE set a=?,b=?,c=? where id=? ------------------------------
 
     String SQL_UPDATE_BY_ID = null;
     String[] UPDATE_PROPERTIES = null;
+    PropertyMapping[] UPDATE_MAPPINGS = null;
+
+    static final int MAX_UPDATE_SQLS = 256;
+
+    /**
+     * Update statements of changed columns, keyed by bits of indexes in
+     * UPDATE_PROPERTIES.
+     */
+    final Map<BitSet, String> partialUpdateSQLs = new ConcurrentHashMap<BitSet, String>();
+
+    /**
+     * Update statements of updateProperties, keyed by property names.
+     */
+    final Map<List<String>, String> updatePropertiesSQLs = new ConcurrentHashMap<List<String>, String>();
 
+    /**
+     * Update all updatable properties, or only changed properties if entity 
+     * is tracked. Return null if tracked entity has no change.
+     */
     SQLOperation updateEntity(Object entity) throws Exception {
+        SnapshotRegistry snapshots = this.snapshots;
+        Object[] snapshot = snapshots==null ? null : snapshots.get(entity);
+        if (snapshot==null)
+            return new SQLOperation(updateSQL(), updateParams(entity));
+        BitSet changed = new BitSet(UPDATE_MAPPINGS.length);
+        Object[] values = new Object[UPDATE_MAPPINGS.length];
+        for (int i=0; i<UPDATE_MAPPINGS.length; i++) {
+            values[i] = UPDATE_MAPPINGS[i].accessor.get(entity);
+            if ( ! Objects.deepEquals(values[i], snapshot[i]))
+                changed.set(i);
+        }
+        if (changed.isEmpty())
+            return null;
+        Object[] params = new Object[changed.cardinality() + whereIdParams()];
+        int n = 0;
+        for (int i=changed.nextSetBit(0); i>=0; i=changed.nextSetBit(i+1)) {
+            params[n++] = UPDATE_MAPPINGS[i].get(entity);
+        }
+        setWhereIdParams(entity, params, n);
+        return new SQLOperation(partialUpdateSQL(changed), params);
+    }
+
+    String partialUpdateSQL(BitSet changed) {
+        String sql = partialUpdateSQLs.get(changed);
+        if (sql==null) {
+            StringBuilder sb = new StringBuilder(64);
+            sb.append("update ").append(this.tableName).append(" set ");
+            for (int i=changed.nextSetBit(0); i>=0; i=changed.nextSetBit(i+1)) {
+                sb.append(UPDATE_MAPPINGS[i].columnName).append("=?,");
+            }
+            appendWhereId(sb);
+            sql = sb.toString();
+            if (partialUpdateSQLs.size() < MAX_UPDATE_SQLS) {
+                partialUpdateSQLs.put(changed, sql);
+            }
+        }
+        return sql;
+    }
+
+    String updateSQL() {
         if (SQL_UPDATE_BY_ID==null) {
             StringBuilder sb = new StringBuilder(64);
             sb.append("update ").append(this.tableName).append(" set ");
@@ -176,46 +832,115 @@ class EntityOperation<T> {
             Arrays.sort(properties);
             List<String> updatableProperties = new LinkedList<String>();
             for (String property : properties) {
-                if ( ! property.equals(idProperty)) {
-                    PropertyMapping pm = mappings.get(property);
+                PropertyMapping pm = mappings.get(property);
+                if ( ! property.equals(idProperty) && pm!=versionMapping) {
                     if (pm.updatable) {
                         updatableProperties.add(property);
                         sb.append(pm.columnName).append("=?,");
                     }
                 }
             }
-            // delete last ',':
-            sb.deleteCharAt(sb.length()-1);
-            sb.append(" where ").append(this.mappings.get(this.idProperty).columnName).append("=?");
+            appendWhereId(sb);
+            String[] updateProperties = updatableProperties.toArray(new String[updatableProperties.size()]);
+            PropertyMapping[] updateMappings = new PropertyMapping[updateProperties.length];
+            for (int i=0; i<updateProperties.length; i++) {
+                updateMappings[i] = mappings.get(updateProperties[i]);
+            }
+            UPDATE_PROPERTIES = updateProperties;
+            UPDATE_MAPPINGS = updateMappings;
             SQL_UPDATE_BY_ID = sb.toString();
-            UPDATE_PROPERTIES = updatableProperties.toArray(new String[updatableProperties.size()]);
         }
-        Object[] params = new Object[UPDATE_PROPERTIES.length+1];
+        return SQL_UPDATE_BY_ID;
+    }
+
+    Object[] updateParams(Object entity) throws Exception {
+        updateSQL();
+        Object[] params = new Object[UPDATE_PROPERTIES.length + whereIdParams()];
         for (int i=0; i<UPDATE_PROPERTIES.length; i++) {
             params[i] = this.mappings.get(UPDATE_PROPERTIES[i]).get(entity);
         }
-        params[UPDATE_PROPERTIES.length] = this.mappings.get(idProperty).get(entity);
-        return new SQLOperation(SQL_UPDATE_BY_ID, params);
+        setWhereIdParams(entity, params, UPDATE_PROPERTIES.length);
+        return params;
     }
 
-    SQLOperation updateProperties(Object entity, String... properties) throws Exception {
-        StringBuilder sb = new StringBuilder(64);
-        sb.append("update ").append(this.tableName).append(" set ");
-        for (String property : properties) {
-            PropertyMapping pm = mappings.get(property);
-            if ( ! pm.updatable)
-                throw new DbException("Could not update property " + property + " because its updatable=false.");
-            sb.append(pm.columnName).append("=?,");
-        }
+    /**
+     * Append "version=?" if entity is versioned, and where condition of 
+     * version and id. Id is always the last parameter.
+     */
+    void appendWhereId(StringBuilder sb) {
+        if (versionMapping!=null)
+            sb.append(versionMapping.columnName).append("=?,");
         // delete last ',':
         sb.deleteCharAt(sb.length()-1);
-        sb.append(" where ").append(this.mappings.get(this.idProperty).columnName).append("=?");
-        Object[] params = new Object[properties.length+1];
+        sb.append(" where ");
+        if (versionMapping!=null)
+            sb.append(versionMapping.columnName).append("=? and ");
+        sb.append(this.mappings.get(this.idProperty).columnName).append("=?");
+    }
+
+    /**
+     * Number of parameters appended by appendWhereId().
+     */
+    int whereIdParams() {
+        return versionMapping==null ? 1 : 3;
+    }
+
+    /**
+     * Set parameters of new version and current version if entity is 
+     * versioned, then id, from index n.
+     */
+    void setWhereIdParams(Object entity, Object[] params, int n) throws Exception {
+        if (versionMapping!=null) {
+            Object version = versionMapping.get(entity);
+            if (version==null)
+                throw new DbException("Version of entity " + entityClass.getName() + " is null.");
+            params[n++] = nextVersion(version);
+            params[n++] = version;
+        }
+        params[n] = getId(entity);
+    }
+
+    static Object nextVersion(Object version) {
+        if (version instanceof Integer)
+            return Integer.valueOf((Integer) version + 1);
+        return Long.valueOf(((Number) version).longValue() + 1);
+    }
+
+    /**
+     * Increase version of entity after it is updated.
+     */
+    void incrementVersion(Object entity) throws Exception {
+        if (versionMapping!=null)
+            versionMapping.set(entity, nextVersion(versionMapping.get(entity)));
+    }
+
+    SQLOperation updateProperties(Object entity, String... properties) throws Exception {
+        String sql = updatePropertiesSQLs.get(Arrays.asList(properties));
+        if (sql==null) {
+            StringBuilder sb = new StringBuilder(64);
+            sb.append("update ").append(this.tableName).append(" set ");
+            for (String property : properties) {
+                PropertyMapping pm = mappings.get(property);
+                if (pm==null)
+                    throw new DbException("Unknown property " + property + ".");
+                if ( ! pm.updatable)
+                    throw new DbException("Could not update property " + property + " because its updatable=false.");
+                if (pm==versionMapping)
+                    throw new DbException("Could not update property " + property + " because it is @Version.");
+                sb.append(pm.columnName).append("=?,");
+            }
+            appendWhereId(sb);
+            sql = sb.toString();
+            if (updatePropertiesSQLs.size() < MAX_UPDATE_SQLS) {
+                updatePropertiesSQLs.put(Arrays.asList(properties.clone()), sql);
+            }
+        }
+        Object[] params = new Object[properties.length + whereIdParams()];
         for (int i=0; i<properties.length; i++) {
             params[i] = mappings.get(properties[i]).get(entity);
         }
-        params[properties.length] = mappings.get(idProperty).get(entity);
-        return new SQLOperation(sb.toString(), params);
+        setWhereIdParams(entity, params, properties.length);
+        return new SQLOperation(sql, params);
     }
 }
 
@@ -229,40 +954,3 @@ class SQLOperation {
         this.params = params;
     }
 }
-
-class PropertyMapping {
-
-    final boolean insertable;
-    final boolean updatable;
-    final String columnName;
-    final boolean id;
-    final Method getter;
-    final Method setter;
-    @SuppressWarnings("rawtypes")
-    final Class enumClass;
-
-    public PropertyMapping(Method getter, Method setter) {
-        this.getter = getter;
-        this.setter = setter;
-        this.enumClass = getter.getReturnType().isEnum() ? getter.getReturnType() : null;
-        Column column = getter.getAnnotation(Column.class);
-        this.insertable = column==null ? true : column.insertable();
-        this.updatable = column==null ? true : column.updatable();
-        this.columnName = column==null ? Utils.getGetterName(getter) : ("".equals(column.name()) ? Utils.getGetterName(getter) : column.name());
-        this.id = getter.isAnnotationPresent(Id.class);
-    }
-
-    @SuppressWarnings("unchecked")
-    Object get(Object target) throws Exception {
-        Object r = getter.invoke(target);
-        return enumClass==null ? r : Enum.valueOf(enumClass, (String) r);
-    }
-
-    @SuppressWarnings("unchecked")
-    void set(Object target, Object value) throws Exception {
-        if (enumClass!=null && value!=null) {
-            value = Enum.valueOf(enumClass, (String) value);
-        }
-        setter.invoke(target, value);
-    }
-}
@@ -0,0 +1,29 @@
+package org.expressme.simplejdbc;
+
+/**
+ * H2 dialect which upserts by "merge into ... key (id)". Note that merge 
+ * writes all insert columns of the existing row, including columns which are 
+ * not updatable.
+ * 
+ * @author Michael Liao
+ */
+public class H2Dialect implements Dialect {
+
+    public String upsertSQL(String tableName, String idColumn, String[] insertColumns, String[] updateColumns) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("merge into ").append(tableName).append(" (");
+        for (String column : insertColumns) {
+            sb.append(column).append(',');
+        }
+        // set last ',' to ')':
+        sb.setCharAt(sb.length()-1, ')');
+        sb.append(" key (").append(idColumn).append(") values (");
+        for (int i=0; i<insertColumns.length; i++) {
+            sb.append("?,");
+        }
+        // set last ',' to ')':
+        sb.setCharAt(sb.length()-1, ')');
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,25 @@
+package org.expressme.simplejdbc;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Growable buffer of int values without boxing.
+ *
+ * @author Michael Liao
+ */
+class IntArrayBuilder implements IntConsumer {
+
+    int[] values = new int[64];
+    int size = 0;
+
+    public void accept(int value) {
+        if (size==values.length)
+            values = Arrays.copyOf(values, size << 1);
+        values[size++] = value;
+    }
+
+    int[] toArray() {
+        return size==values.length ? values : Arrays.copyOf(values, size);
+    }
+}
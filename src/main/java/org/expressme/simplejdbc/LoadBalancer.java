@@ -0,0 +1,22 @@
+package org.expressme.simplejdbc;
+
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Policy to select a replica for each read.
+ * 
+ * @author Michael Liao
+ */
+public interface LoadBalancer {
+
+    /**
+     * Select one of replicas.
+     * 
+     * @param replicas Replicas which is not empty.
+     * @return The selected replica.
+     */
+    JdbcTemplate select(List<JdbcTemplate> replicas);
+
+}
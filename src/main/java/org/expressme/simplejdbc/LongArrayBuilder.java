@@ -0,0 +1,25 @@
+package org.expressme.simplejdbc;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Growable buffer of long values without boxing.
+ *
+ * @author Michael Liao
+ */
+class LongArrayBuilder implements LongConsumer {
+
+    long[] values = new long[64];
+    int size = 0;
+
+    public void accept(long value) {
+        if (size==values.length)
+            values = Arrays.copyOf(values, size << 1);
+        values[size++] = value;
+    }
+
+    long[] toArray() {
+        return size==values.length ? values : Arrays.copyOf(values, size);
+    }
+}
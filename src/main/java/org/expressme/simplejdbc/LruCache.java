@@ -0,0 +1,117 @@
+package org.expressme.simplejdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache which is safe for concurrent use. Entries are spread
+ * over segments with their own locks, and each segment evicts its least
+ * recently used entry when full.
+ *
+ * @author Michael Liao
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+class LruCache<K, V> {
+
+    static final int SEGMENTS = 16;
+
+    final int maxSize;
+    final Segment<K, V>[] segments;
+    // counters updated by all threads without contention:
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    LruCache(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Cache size must be positive.");
+        this.maxSize = maxSize;
+        int n = maxSize < SEGMENTS ? 1 : SEGMENTS;
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[n];
+        this.segments = segments;
+        for (int i=0; i<n; i++) {
+            this.segments[i] = new Segment<K, V>((maxSize + n - 1) / n, evictions);
+        }
+    }
+
+    Segment<K, V> segment(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    V get(K key) {
+        Segment<K, V> segment = segment(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value==null)
+            misses.increment();
+        else
+            hits.increment();
+        return value;
+    }
+
+    void put(K key, V value) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    void remove(K key) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int n = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                n += segment.size();
+            }
+        }
+        return n;
+    }
+
+    CacheStats getStats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size());
+    }
+
+    static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        final int maxSize;
+        final LongAdder evictions;
+
+        Segment(int maxSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.expressme.simplejdbc;
+
+/**
+ * Locate shard by id modulo number of shards. Integral ids are taken by 
+ * value, and other ids by hash code.
+ * 
+ * @author Michael Liao
+ */
+public class ModShardFunction implements ShardFunction {
+
+    public int shard(Class<?> entityClass, Object idValue, int shards) {
+        if (idValue==null)
+            throw new DbException("Null id of sharded entity " + entityClass.getName());
+        if (idValue instanceof Long || idValue instanceof Integer || idValue instanceof Short || idValue instanceof Byte)
+            return (int) Math.floorMod(((Number) idValue).longValue(), (long) shards);
+        return Math.floorMod(idValue.hashCode(), shards);
+    }
+
+}
@@ -0,0 +1,39 @@
+package org.expressme.simplejdbc;
+
+/**
+ * MySQL dialect which upserts by "insert ... on duplicate key update".
+ * 
+ * @author Michael Liao
+ */
+public class MySQLDialect implements Dialect {
+
+    public String upsertSQL(String tableName, String idColumn, String[] insertColumns, String[] updateColumns) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("insert into ").append(tableName).append(" (");
+        for (String column : insertColumns) {
+            sb.append(column).append(',');
+        }
+        // set last ',' to ')':
+        sb.setCharAt(sb.length()-1, ')');
+        sb.append(" values (");
+        for (int i=0; i<insertColumns.length; i++) {
+            sb.append("?,");
+        }
+        // set last ',' to ')':
+        sb.setCharAt(sb.length()-1, ')');
+        sb.append(" on duplicate key update ");
+        if (updateColumns.length==0) {
+            // nothing to update but the statement requires one:
+            sb.append(idColumn).append('=').append(idColumn);
+        }
+        else {
+            for (String column : updateColumns) {
+                sb.append(column).append("=values(").append(column).append("),");
+            }
+            // delete last ',':
+            sb.deleteCharAt(sb.length()-1);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,27 @@
+package org.expressme.simplejdbc;
+
+/**
+ * Listener of completed operations of Db, which could be used to collect 
+ * metrics. It is called on the thread of the operation, so it must be fast 
+ * and thread-safe.
+ * 
+ * @author Michael Liao
+ */
+public interface OperationListener {
+
+    /**
+     * Called when an operation is completed.
+     * 
+     * @param entityName Simple name of entity class, or table name if the 
+     *                   operation is not mapped to entity, or null if unknown.
+     * @param operation Name of operation, for example, "getById".
+     * @param sql SQL statement.
+     * @param params SQL parameters, or null for batch operations.
+     * @param elapsedNanos Total elapsed time in nanoseconds.
+     * @param mappingNanos Time of mapping rows to entities in nanoseconds.
+     * @param rows Number of rows mapped or affected.
+     * @param error Exception thrown by operation, or null if succeeded.
+     */
+    void operationCompleted(String entityName, String operation, String sql, Object[] params, long elapsedNanos, long mappingNanos, int rows, Throwable error);
+
+}
@@ -0,0 +1,31 @@
+package org.expressme.simplejdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing of one operation, which is only created if operation listener or 
+ * slow query log is enabled.
+ * 
+ * @author Michael Liao
+ */
+class OperationProbe {
+
+    final String entityName;
+    final String operation;
+    final String sql;
+    final Object[] params;
+    final long start = System.nanoTime();
+
+    /**
+     * Mapping time may be added by several threads when querying shards.
+     */
+    final AtomicLong mappingNanos = new AtomicLong();
+
+    OperationProbe(String entityName, String operation, String sql, Object[] params) {
+        this.entityName = entityName;
+        this.operation = operation;
+        this.sql = sql;
+        this.params = params;
+    }
+
+}
@@ -0,0 +1,118 @@
+package org.expressme.simplejdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of one operation of one entity. Latencies are counted in a 
+ * histogram of power-of-2 buckets of nanoseconds.
+ * 
+ * @author Michael Liao
+ */
+public class OperationStats {
+
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong rows = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong mappingNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+    final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    void record(long elapsedNanos, long mappingNanos, int rows, boolean error) {
+        this.count.incrementAndGet();
+        if (error)
+            this.errors.incrementAndGet();
+        this.rows.addAndGet(rows);
+        this.totalNanos.addAndGet(elapsedNanos);
+        this.mappingNanos.addAndGet(mappingNanos);
+        long max = this.maxNanos.get();
+        while (elapsedNanos > max && ! this.maxNanos.compareAndSet(max, elapsedNanos)) {
+            max = this.maxNanos.get();
+        }
+        this.buckets.incrementAndGet(bucket(elapsedNanos));
+    }
+
+    /**
+     * Bucket i counts latencies in [2^(i-1), 2^i) nanoseconds.
+     */
+    static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : Math.min(63, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * Get time of mapping rows to entities.
+     * 
+     * @return Mapping time in nanoseconds.
+     */
+    public long getMappingNanos() {
+        return mappingNanos.get();
+    }
+
+    /**
+     * Get time spent out of row mapping, which is mostly in JDBC calls.
+     * 
+     * @return JDBC time in nanoseconds.
+     */
+    public long getJdbcNanos() {
+        return totalNanos.get() - mappingNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long n = count.get();
+        return n==0 ? 0 : totalNanos.get() / n;
+    }
+
+    /**
+     * Get upper bound of latency percentile from histogram.
+     * 
+     * @param percentile Percentile between 0 and 100, for example, 99.
+     * @return Upper bound of latency in nanoseconds, which is at most 2 times 
+     *         of the real value.
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = 0;
+        long[] counts = new long[buckets.length()];
+        for (int i=0; i<counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total==0)
+            return 0;
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long n = 0;
+        for (int i=0; i<counts.length; i++) {
+            n += counts[i];
+            if (n >= rank && counts[i] > 0)
+                return Math.min(i==63 ? Long.MAX_VALUE : (1L << i), maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "OperationStats(count=" + getCount() + ", errors=" + getErrors() + ", rows=" + getRows() 
+                + ", meanNanos=" + getMeanNanos() + ", p99Nanos=" + getPercentileNanos(99) + ", maxNanos=" + getMaxNanos() 
+                + ", mappingNanos=" + getMappingNanos() + ", jdbcNanos=" + getJdbcNanos() + ")";
+    }
+}
@@ -0,0 +1,57 @@
+package org.expressme.simplejdbc;
+
+import java.util.List;
+
+/**
+ * One page of keyset pagination, with a continuation token for the next
+ * page. For example:
+ * <code>
+ * Page&lt;User&gt; page = db.queryForPage(User.class, null, 20);
+ * while (page.hasNext()) {
+ *     page = db.queryForPage(User.class, page.getNext(), 20);
+ * }
+ * </code>
+ *
+ * @author Michael Liao
+ *
+ * @param <T> Entity class type.
+ */
+public class Page<T> {
+
+    final List<T> list;
+    final Object next;
+
+    Page(List<T> list, Object next) {
+        this.list = list;
+        this.next = next;
+    }
+
+    /**
+     * Get entities of this page.
+     *
+     * @return List of entities.
+     */
+    public List<T> getList() {
+        return list;
+    }
+
+    /**
+     * Is there a next page.
+     *
+     * @return True if has next page.
+     */
+    public boolean hasNext() {
+        return next!=null;
+    }
+
+    /**
+     * Get the continuation token which should be passed to the next query
+     * as "after" argument.
+     *
+     * @return Continuation token, or null if this is the last page.
+     */
+    public Object getNext() {
+        return next;
+    }
+
+}
@@ -0,0 +1,202 @@
+package org.expressme.simplejdbc;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * Column-pruned view of entity, which is a subset of entity properties, a 
+ * DTO class or an interface of getters. The select statement only lists 
+ * columns of projected properties, so each column is read by its position 
+ * without resolving column labels.
+ *
+ * @author Michael Liao
+ *
+ * @param <P> Projection type.
+ */
+class Projection<P> {
+
+    final EntityOperation<?> op;
+    final Class<P> projectionClass;
+    final String selectSQL;
+    final String selectByIdSQL;
+
+    /**
+     * Property mappings to read column values into, indexed by column 
+     * index (starts from 0). They belong to entity unless projection is a 
+     * DTO class.
+     */
+    final PropertyMapping[] targets;
+
+    /**
+     * Entity property mappings of interface getters, or null if projection 
+     * is not an interface.
+     */
+    final Map<Method, PropertyMapping> getters;
+
+    /**
+     * Create projection of entity properties.
+     */
+    Projection(EntityOperation<P> op, String[] properties) {
+        this.op = op;
+        this.projectionClass = op.entityClass;
+        this.getters = null;
+        this.targets = new PropertyMapping[properties.length];
+        for (int i=0; i<properties.length; i++) {
+            this.targets[i] = entityMapping(properties[i]);
+        }
+        this.selectSQL = selectSQL(this.targets);
+        this.selectByIdSQL = selectByIdSQL(this.selectSQL);
+    }
+
+    /**
+     * Create projection of DTO class or interface. Properties of DTO are 
+     * mapped if entity has properties of the same names, and all getters 
+     * of interface must be entity properties.
+     */
+    Projection(EntityOperation<?> op, Class<P> projectionClass) {
+        this.op = op;
+        this.projectionClass = projectionClass;
+        Map<String, Method> getters = Utils.findPublicGetters(projectionClass);
+        PropertyMapping[] columns;
+        if (projectionClass.isInterface()) {
+            this.getters = new HashMap<Method, PropertyMapping>();
+            for (String property : getters.keySet()) {
+                this.getters.put(getters.get(property), entityMapping(property));
+            }
+            this.targets = this.getters.values().toArray(new PropertyMapping[this.getters.size()]);
+            columns = this.targets;
+        }
+        else {
+            Map<String, Method> setters = Utils.findPublicSetters(projectionClass);
+            Map<String, PropertyMapping> targets = new HashMap<String, PropertyMapping>();
+            Map<String, PropertyMapping> entityMappings = new HashMap<String, PropertyMapping>();
+            for (String property : getters.keySet()) {
+                Method setter = setters.get(property);
+                if (setter!=null && op.mappings.containsKey(property)) {
+                    targets.put(property, new PropertyMapping(getters.get(property), setter, op.converters));
+                    entityMappings.put(property, op.mappings.get(property));
+                }
+            }
+            this.getters = null;
+            this.targets = targets.values().toArray(new PropertyMapping[targets.size()]);
+            columns = new PropertyMapping[this.targets.length];
+            int n = 0;
+            for (String property : targets.keySet()) {
+                columns[n++] = entityMappings.get(property);
+            }
+        }
+        if (this.targets.length==0)
+            throw new DbException("No property of " + projectionClass.getName() + " is mapped to entity " + op.entityClass.getName() + ".");
+        this.selectSQL = selectSQL(columns);
+        this.selectByIdSQL = selectByIdSQL(this.selectSQL);
+    }
+
+    PropertyMapping entityMapping(String property) {
+        PropertyMapping pm = op.mappings.get(property);
+        if (pm==null)
+            throw new DbException("Unknown property " + property + ".");
+        return pm;
+    }
+
+    String selectSQL(PropertyMapping[] columns) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("select ");
+        for (PropertyMapping pm : columns) {
+            sb.append(pm.columnName).append(',');
+        }
+        // delete last ',':
+        sb.deleteCharAt(sb.length()-1);
+        sb.append(" from ").append(op.tableName);
+        return sb.toString();
+    }
+
+    String selectByIdSQL(String selectSQL) {
+        return selectSQL + " where " + op.mappings.get(op.idProperty).columnName + "=?";
+    }
+
+    /**
+     * Append where condition to pruned select.
+     */
+    String selectSQL(String where) {
+        if (where==null || where.length()==0)
+            return selectSQL;
+        return selectSQL + " where " + where;
+    }
+
+    /**
+     * Create a row mapper which adds mapping time to probe if not null. The 
+     * row mapper has no state so it is thread-safe.
+     */
+    RowMapper<P> createRowMapper(final OperationProbe probe) {
+        final Class<?> targetClass = getters==null ? projectionClass : op.entityClass;
+        final boolean entity = targetClass==op.entityClass;
+        final Constructor<?> constructor;
+        try {
+            constructor = targetClass.getDeclaredConstructor();
+        }
+        catch (NoSuchMethodException e) {
+            throw new DbException("No default constructor of " + targetClass.getName(), e);
+        }
+        return new RowMapper<P>() {
+            @SuppressWarnings("unchecked")
+            public P mapRow(ResultSet rs, int rowNum) throws SQLException {
+                long start = probe==null ? 0L : System.nanoTime();
+                try {
+                    Object target = constructor.newInstance();
+                    for (int i=0; i<targets.length; i++) {
+                        targets[i].read(rs, i + 1, target);
+                    }
+                    if (entity)
+                        op.track(target);
+                    P p = getters==null ? (P) target : proxy(target);
+                    if (probe!=null)
+                        probe.mappingNanos.addAndGet(System.nanoTime() - start);
+                    return p;
+                }
+                catch (SQLException e) {
+                    throw e;
+                }
+                catch (RuntimeException e) {
+                    throw e;
+                }
+                catch (InvocationTargetException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Create proxy of interface which reads values from partial entity.
+     */
+    @SuppressWarnings("unchecked")
+    P proxy(final Object entity) {
+        return (P) Proxy.newProxyInstance(projectionClass.getClassLoader(), new Class<?>[] { projectionClass }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                PropertyMapping pm = getters.get(method);
+                if (pm!=null)
+                    return pm.accessor.get(entity);
+                String name = method.getName();
+                if (name.equals("equals") && args!=null && args.length==1)
+                    return proxy==args[0];
+                if (name.equals("hashCode") && args==null)
+                    return System.identityHashCode(proxy);
+                if (name.equals("toString") && args==null)
+                    return projectionClass.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                throw new UnsupportedOperationException("Unsupported method: " + method);
+            }
+        });
+    }
+}
@@ -0,0 +1,198 @@
+package org.expressme.simplejdbc;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Read and write a property of entity object. Accessors are generated by
+ * LambdaMetafactory so each call costs about the same as a direct method
+ * call, and fall back to reflection if the entity could not be generated.
+ *
+ * @author Michael Liao
+ */
+abstract class PropertyAccessor {
+
+    static final Log log = LogFactory.getLog(PropertyAccessor.class);
+
+    abstract Object get(Object target) throws Exception;
+
+    abstract void set(Object target, Object value) throws Exception;
+
+    void setLong(Object target, long value) throws Exception {
+        set(target, value);
+    }
+
+    void setInt(Object target, int value) throws Exception {
+        set(target, value);
+    }
+
+    void setDouble(Object target, double value) throws Exception {
+        set(target, value);
+    }
+
+    static PropertyAccessor create(Method getter, Method setter) {
+        if (isVisible(getter.getDeclaringClass())
+                && isVisible(setter.getDeclaringClass())
+                && isVisible(getter.getReturnType())
+                && isVisible(setter.getParameterTypes()[0])) {
+            try {
+                return new GeneratedPropertyAccessor(getter, setter);
+            }
+            catch (Throwable t) {
+                log.warn("Could not generate accessor for property " + Utils.getGetterName(getter)
+                        + " of " + getter.getDeclaringClass().getName() + ", fall back to reflection.", t);
+            }
+        }
+        return new ReflectivePropertyAccessor(getter, setter);
+    }
+
+    /**
+     * Generated class must resolve the entity class from our class loader.
+     */
+    static boolean isVisible(Class<?> clazz) {
+        if (clazz.isPrimitive())
+            return true;
+        if (clazz.isArray())
+            return isVisible(clazz.getComponentType());
+        try {
+            return Class.forName(clazz.getName(), false, PropertyAccessor.class.getClassLoader()) == clazz;
+        }
+        catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    static Class<?> wrap(Class<?> clazz) {
+        if ( ! clazz.isPrimitive())
+            return clazz;
+        if (clazz==int.class)
+            return Integer.class;
+        if (clazz==long.class)
+            return Long.class;
+        if (clazz==boolean.class)
+            return Boolean.class;
+        if (clazz==double.class)
+            return Double.class;
+        if (clazz==float.class)
+            return Float.class;
+        if (clazz==short.class)
+            return Short.class;
+        if (clazz==byte.class)
+            return Byte.class;
+        if (clazz==char.class)
+            return Character.class;
+        throw new IllegalArgumentException("Unsupported primitive type: " + clazz.getName());
+    }
+}
+
+class GeneratedPropertyAccessor extends PropertyAccessor {
+
+    final Function<Object, Object> getter;
+    final BiConsumer<Object, Object> setter;
+    // primitive setter, or null if property is not of the primitive type:
+    final ObjLongConsumer<Object> longSetter;
+    final ObjIntConsumer<Object> intSetter;
+    final ObjDoubleConsumer<Object> doubleSetter;
+
+    @SuppressWarnings("unchecked")
+    GeneratedPropertyAccessor(Method getter, Method setter) throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Class<?> type = setter.getParameterTypes()[0];
+        MethodHandle getterHandle = lookup.unreflect(getter);
+        CallSite getterSite = LambdaMetafactory.metafactory(
+                lookup,
+                "apply",
+                MethodType.methodType(Function.class),
+                MethodType.methodType(Object.class, Object.class),
+                getterHandle,
+                MethodType.methodType(wrap(getter.getReturnType()), getter.getDeclaringClass())
+        );
+        this.getter = (Function<Object, Object>) getterSite.getTarget().invokeExact();
+        MethodHandle setterHandle = lookup.unreflect(setter);
+        CallSite setterSite = LambdaMetafactory.metafactory(
+                lookup,
+                "accept",
+                MethodType.methodType(BiConsumer.class),
+                MethodType.methodType(void.class, Object.class, Object.class),
+                setterHandle,
+                MethodType.methodType(void.class, setter.getDeclaringClass(), wrap(setter.getParameterTypes()[0]))
+        );
+        this.setter = (BiConsumer<Object, Object>) setterSite.getTarget().invokeExact();
+        this.longSetter = type==long.class ? (ObjLongConsumer<Object>) primitiveSetter(lookup, setterHandle, ObjLongConsumer.class, setter) : null;
+        this.intSetter = type==int.class ? (ObjIntConsumer<Object>) primitiveSetter(lookup, setterHandle, ObjIntConsumer.class, setter) : null;
+        this.doubleSetter = type==double.class ? (ObjDoubleConsumer<Object>) primitiveSetter(lookup, setterHandle, ObjDoubleConsumer.class, setter) : null;
+    }
+
+    static Object primitiveSetter(MethodHandles.Lookup lookup, MethodHandle setterHandle, Class<?> consumerClass, Method setter) throws Throwable {
+        Class<?> type = setter.getParameterTypes()[0];
+        CallSite site = LambdaMetafactory.metafactory(
+                lookup,
+                "accept",
+                MethodType.methodType(consumerClass),
+                MethodType.methodType(void.class, Object.class, type),
+                setterHandle,
+                MethodType.methodType(void.class, setter.getDeclaringClass(), type)
+        );
+        return site.getTarget().invoke();
+    }
+
+    Object get(Object target) {
+        return getter.apply(target);
+    }
+
+    void set(Object target, Object value) {
+        setter.accept(target, value);
+    }
+
+    void setLong(Object target, long value) {
+        if (longSetter==null)
+            setter.accept(target, value);
+        else
+            longSetter.accept(target, value);
+    }
+
+    void setInt(Object target, int value) {
+        if (intSetter==null)
+            setter.accept(target, value);
+        else
+            intSetter.accept(target, value);
+    }
+
+    void setDouble(Object target, double value) {
+        if (doubleSetter==null)
+            setter.accept(target, value);
+        else
+            doubleSetter.accept(target, value);
+    }
+}
+
+class ReflectivePropertyAccessor extends PropertyAccessor {
+
+    final Method getter;
+    final Method setter;
+
+    ReflectivePropertyAccessor(Method getter, Method setter) {
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    Object get(Object target) throws Exception {
+        return getter.invoke(target);
+    }
+
+    void set(Object target, Object value) throws Exception {
+        setter.invoke(target, value);
+    }
+}
@@ -0,0 +1,174 @@
+package org.expressme.simplejdbc;
+
+import java.lang.reflect.Method;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+
+/**
+ * Mapping of an entity property to its column, with the accessor and the 
+ * typed ResultSet getter to read the column.
+ * 
+ * @author Michael Liao
+ */
+class PropertyMapping {
+
+    static final int TYPE_OBJECT = 0;
+    static final int TYPE_LONG = 1;
+    static final int TYPE_LONG_OBJECT = 2;
+    static final int TYPE_INT = 3;
+    static final int TYPE_INT_OBJECT = 4;
+    static final int TYPE_DOUBLE = 5;
+    static final int TYPE_DOUBLE_OBJECT = 6;
+    static final int TYPE_BOOLEAN = 7;
+    static final int TYPE_STRING = 8;
+    static final int TYPE_TIMESTAMP = 9;
+    static final int TYPE_DATE = 10;
+    static final int TYPE_CONVERTER = 11;
+
+    final boolean insertable;
+    final boolean updatable;
+    final String columnName;
+    final boolean id;
+    final Method getter;
+    final Method setter;
+    final PropertyAccessor accessor;
+
+    /**
+     * Converter of property, or null if property is read by typed getter of 
+     * ResultSet and written as is.
+     */
+    final Converter<Object> converter;
+    final int type;
+
+    public PropertyMapping(Method getter, Method setter) {
+        this(getter, setter, Collections.<Class<?>, Converter<?>>emptyMap());
+    }
+
+    public PropertyMapping(Method getter, Method setter, Map<Class<?>, Converter<?>> converters) {
+        this.getter = getter;
+        this.setter = setter;
+        this.accessor = PropertyAccessor.create(getter, setter);
+        this.converter = Converters.forProperty(getter, converters);
+        this.type = converter==null ? getType(setter.getParameterTypes()[0]) : TYPE_CONVERTER;
+        Column column = getter.getAnnotation(Column.class);
+        this.insertable = column==null ? true : column.insertable();
+        this.updatable = column==null ? true : column.updatable();
+        this.columnName = column==null ? Utils.getGetterName(getter) : ("".equals(column.name()) ? Utils.getGetterName(getter) : column.name());
+        this.id = getter.isAnnotationPresent(Id.class);
+    }
+
+    /**
+     * Get property value as SQL parameter value.
+     */
+    Object get(Object target) throws Exception {
+        Object r = accessor.get(target);
+        return converter==null || r==null ? r : converter.toColumn(r);
+    }
+
+    /**
+     * Set property value.
+     */
+    void set(Object target, Object value) throws Exception {
+        accessor.set(target, value);
+    }
+
+    static int getType(Class<?> clazz) {
+        if (clazz==long.class)
+            return TYPE_LONG;
+        if (clazz==Long.class)
+            return TYPE_LONG_OBJECT;
+        if (clazz==int.class)
+            return TYPE_INT;
+        if (clazz==Integer.class)
+            return TYPE_INT_OBJECT;
+        if (clazz==double.class)
+            return TYPE_DOUBLE;
+        if (clazz==Double.class)
+            return TYPE_DOUBLE_OBJECT;
+        if (clazz==boolean.class || clazz==Boolean.class)
+            return TYPE_BOOLEAN;
+        if (clazz==String.class)
+            return TYPE_STRING;
+        if (clazz==Timestamp.class)
+            return TYPE_TIMESTAMP;
+        if (clazz==Date.class)
+            return TYPE_DATE;
+        return TYPE_OBJECT;
+    }
+
+    /**
+     * Read column value by the typed getter of ResultSet, and set to the
+     * property if value is not null.
+     */
+    void read(ResultSet rs, int index, Object target) throws Exception {
+        switch (type) {
+        case TYPE_LONG: {
+            long n = rs.getLong(index);
+            if ( ! rs.wasNull())
+                accessor.setLong(target, n);
+            return;
+        }
+        case TYPE_LONG_OBJECT: {
+            long n = rs.getLong(index);
+            if ( ! rs.wasNull())
+                accessor.set(target, n);
+            return;
+        }
+        case TYPE_INT: {
+            int n = rs.getInt(index);
+            if ( ! rs.wasNull())
+                accessor.setInt(target, n);
+            return;
+        }
+        case TYPE_INT_OBJECT: {
+            int n = rs.getInt(index);
+            if ( ! rs.wasNull())
+                accessor.set(target, n);
+            return;
+        }
+        case TYPE_DOUBLE: {
+            double d = rs.getDouble(index);
+            if ( ! rs.wasNull())
+                accessor.setDouble(target, d);
+            return;
+        }
+        case TYPE_DOUBLE_OBJECT: {
+            double d = rs.getDouble(index);
+            if ( ! rs.wasNull())
+                accessor.set(target, d);
+            return;
+        }
+        case TYPE_BOOLEAN: {
+            boolean b = rs.getBoolean(index);
+            if ( ! rs.wasNull())
+                accessor.set(target, b);
+            return;
+        }
+        case TYPE_STRING:
+            setIfNotNull(target, rs.getString(index));
+            return;
+        case TYPE_TIMESTAMP:
+            setIfNotNull(target, rs.getTimestamp(index));
+            return;
+        case TYPE_DATE:
+            setIfNotNull(target, rs.getDate(index));
+            return;
+        case TYPE_CONVERTER:
+            setIfNotNull(target, converter.fromColumn(rs, index));
+            return;
+        default:
+            setIfNotNull(target, rs.getObject(index));
+        }
+    }
+
+    void setIfNotNull(Object target, Object value) throws Exception {
+        if (value!=null)
+            accessor.set(target, value);
+    }
+}
@@ -0,0 +1,214 @@
+package org.expressme.simplejdbc;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of query results keyed by SQL and parameters, bounded by estimated
+ * bytes. Each table has a version which is increased by every write to the
+ * table, and a cached result is valid only if versions of all its tables
+ * are unchanged since the query started. Entries are spread over segments 
+ * with their own locks and equal shares of max bytes, as LruCache does.
+ *
+ * @author Michael Liao
+ */
+class QueryCache {
+
+    static final int SEGMENTS = 16;
+
+    // min bytes of each segment, so a small cache still holds large results:
+    static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+
+    final long maxBytes;
+    final long ttlMillis;
+    final Segment[] segments;
+    final ConcurrentHashMap<String, AtomicLong> tableVersions = new ConcurrentHashMap<String, AtomicLong>();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    QueryCache(long maxBytes, long ttlMillis) {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("Max bytes must be positive.");
+        if (ttlMillis < 1)
+            throw new IllegalArgumentException("TTL must be positive.");
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        int n = maxBytes < SEGMENTS * MIN_SEGMENT_BYTES ? 1 : SEGMENTS;
+        this.segments = new Segment[n];
+        for (int i=0; i<n; i++) {
+            this.segments[i] = new Segment(maxBytes / n);
+        }
+    }
+
+    Segment segment(Key key) {
+        int h = key.hash;
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * Get current versions of tables, which must be called before query.
+     */
+    long[] versions(String[] tables) {
+        long[] versions = new long[tables.length];
+        for (int i=0; i<tables.length; i++) {
+            versions[i] = tableVersion(tables[i]).get();
+        }
+        return versions;
+    }
+
+    AtomicLong tableVersion(String table) {
+        String key = table.toLowerCase();
+        AtomicLong version = tableVersions.get(key);
+        if (version==null) {
+            version = new AtomicLong();
+            AtomicLong old = tableVersions.putIfAbsent(key, version);
+            if (old!=null)
+                version = old;
+        }
+        return version;
+    }
+
+    Object get(Key key, String[] tables) {
+        Segment segment = segment(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        if (entry!=null) {
+            if (entry.expires >= System.currentTimeMillis() && Arrays.equals(entry.versions, versions(tables))) {
+                hits.increment();
+                return entry.result;
+            }
+            synchronized (segment) {
+                if (segment.get(key)==entry) {
+                    segment.remove(key);
+                    segment.bytes -= entry.bytes;
+                    evictions.increment();
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(Key key, Object result, long[] versions, long resultBytes) {
+        Segment segment = segment(key);
+        long entryBytes = resultBytes + key.bytes + 64;
+        if (entryBytes > segment.maxBytes)
+            return;
+        Entry entry = new Entry(result, versions, System.currentTimeMillis() + ttlMillis, entryBytes);
+        synchronized (segment) {
+            Entry old = segment.put(key, entry);
+            if (old!=null)
+                segment.bytes -= old.bytes;
+            segment.bytes += entryBytes;
+            Iterator<Entry> it = segment.values().iterator();
+            while (segment.bytes > segment.maxBytes && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                segment.bytes -= eldest.bytes;
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Invalidate all cached results of table.
+     */
+    void invalidate(String table) {
+        tableVersion(table).incrementAndGet();
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.bytes = 0;
+            }
+        }
+    }
+
+    CacheStats getStats() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    /**
+     * Access-ordered entries guarded by lock of segment itself.
+     */
+    static class Segment extends LinkedHashMap<Key, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        final long maxBytes;
+        long bytes = 0;
+
+        Segment(long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    static class Key {
+
+        final int kind;
+        final String sql;
+        final Object[] params;
+        final int hash;
+        final long bytes;
+
+        Key(int kind, String sql, Object[] params) {
+            this.kind = kind;
+            this.sql = sql;
+            this.params = params.clone();
+            this.hash = (31 * kind + sql.hashCode()) * 31 + Arrays.deepHashCode(params);
+            long n = sql.length() * 2 + 32;
+            for (Object param : params) {
+                n += Utils.estimateBytes(param);
+            }
+            this.bytes = n;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o==this)
+                return true;
+            if ( ! (o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return kind==k.kind && hash==k.hash && sql.equals(k.sql) && Arrays.deepEquals(params, k.params);
+        }
+    }
+
+    static class Entry {
+
+        final Object result;
+        final long[] versions;
+        final long expires;
+        final long bytes;
+
+        Entry(Object result, long[] versions, long expires, long bytes) {
+            this.result = result;
+            this.versions = versions;
+            this.expires = expires;
+            this.bytes = bytes;
+        }
+    }
+}
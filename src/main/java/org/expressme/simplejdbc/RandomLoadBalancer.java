@@ -0,0 +1,19 @@
+package org.expressme.simplejdbc;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Select a random replica.
+ * 
+ * @author Michael Liao
+ */
+public class RandomLoadBalancer implements LoadBalancer {
+
+    public JdbcTemplate select(List<JdbcTemplate> replicas) {
+        return replicas.get(ThreadLocalRandom.current().nextInt(replicas.size()));
+    }
+
+}
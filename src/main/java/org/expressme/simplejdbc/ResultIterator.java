@@ -0,0 +1,137 @@
+package org.expressme.simplejdbc;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * Iterator over a streaming query result, mapping one row at a time. The
+ * iterator holds an open connection until all rows are read or it is
+ * closed, so it should be used in try-with-resources. For example:
+ * <code>
+ * try (ResultIterator&lt;User&gt; it = db.queryForIterator("select * from User")) {
+ *     while (it.hasNext()) {
+ *         export(it.next());
+ *     }
+ * }
+ * </code>
+ * The elapsed time and rows of the query are reported to operation listener 
+ * and slow query log of Db when the iterator is closed.
+ *
+ * @author Michael Liao
+ *
+ * @param <T> Element type.
+ */
+public class ResultIterator<T> implements Iterator<T>, Closeable {
+
+    final Db db;
+    final OperationProbe probe;
+    final JdbcTemplate jdbcTemplate;
+    final String sql;
+    final RowMapper<T> rowMapper;
+    final DataSource dataSource;
+    Throwable error = null;
+    Connection conn;
+    PreparedStatement ps;
+    ResultSet rs;
+    int rowNum = 0;
+    boolean fetched = false;
+    boolean hasNext = false;
+    boolean closed = false;
+
+    ResultIterator(Db db, OperationProbe probe, JdbcTemplate jdbcTemplate, String sql, Object[] params, int fetchSize, RowMapper<T> rowMapper) {
+        this.db = db;
+        this.probe = probe;
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+        this.rowMapper = rowMapper;
+        this.dataSource = jdbcTemplate.getDataSource();
+        this.conn = DataSourceUtils.getConnection(dataSource);
+        try {
+            this.ps = new StreamingStatementCreator(sql, params, fetchSize).createPreparedStatement(conn);
+            this.rs = ps.executeQuery();
+        }
+        catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    /**
+     * Translate exception and close iterator with the error.
+     */
+    DataAccessException fail(SQLException e) {
+        DataAccessException ex = jdbcTemplate.getExceptionTranslator().translate("Streaming query", sql, e);
+        error = ex;
+        close();
+        return ex;
+    }
+
+    public boolean hasNext() {
+        if (closed)
+            return false;
+        if ( ! fetched) {
+            try {
+                hasNext = rs.next();
+            }
+            catch (SQLException e) {
+                throw fail(e);
+            }
+            fetched = true;
+            if ( ! hasNext)
+                close();
+        }
+        return hasNext;
+    }
+
+    public T next() {
+        if ( ! hasNext())
+            throw new NoSuchElementException();
+        fetched = false;
+        try {
+            return rowMapper.mapRow(rs, rowNum++);
+        }
+        catch (SQLException e) {
+            throw fail(e);
+        }
+        catch (RuntimeException e) {
+            // mapping failed, for example by converter:
+            error = e;
+            close();
+            throw e;
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Close the result set, statement and release the connection. It is safe
+     * to call close() more than once.
+     */
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        hasNext = false;
+        JdbcUtils.closeResultSet(rs);
+        JdbcUtils.closeStatement(ps);
+        DataSourceUtils.releaseConnection(conn, dataSource);
+        rs = null;
+        ps = null;
+        conn = null;
+        db.complete(probe, rowNum, error);
+    }
+}
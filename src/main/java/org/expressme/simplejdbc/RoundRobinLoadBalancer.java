@@ -0,0 +1,22 @@
+package org.expressme.simplejdbc;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Select replicas in turn.
+ * 
+ * @author Michael Liao
+ */
+public class RoundRobinLoadBalancer implements LoadBalancer {
+
+    final AtomicInteger next = new AtomicInteger();
+
+    public JdbcTemplate select(List<JdbcTemplate> replicas) {
+        int n = next.getAndIncrement() & 0x7fffffff;
+        return replicas.get(n % replicas.size());
+    }
+
+}
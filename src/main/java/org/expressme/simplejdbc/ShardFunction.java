@@ -0,0 +1,20 @@
+package org.expressme.simplejdbc;
+
+/**
+ * Policy to locate the shard of an entity by its id.
+ * 
+ * @author Michael Liao
+ */
+public interface ShardFunction {
+
+    /**
+     * Get index of shard which stores the entity.
+     * 
+     * @param entityClass Entity class type.
+     * @param idValue Id value of entity.
+     * @param shards Number of shards.
+     * @return Index of shard, from 0 to shards - 1.
+     */
+    int shard(Class<?> entityClass, Object idValue, int shards);
+
+}
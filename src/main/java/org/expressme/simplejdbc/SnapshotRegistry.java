@@ -0,0 +1,70 @@
+package org.expressme.simplejdbc;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshots of property values of entities loaded by Db, keyed by entity
+ * identity. Entities are weakly referenced, so a snapshot is dropped when
+ * its entity is garbage collected.
+ *
+ * @author Michael Liao
+ */
+class SnapshotRegistry {
+
+    final ConcurrentHashMap<IdentityKey, Object[]> snapshots = new ConcurrentHashMap<IdentityKey, Object[]>();
+    final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    Object[] get(Object entity) {
+        expunge();
+        return snapshots.get(new IdentityKey(entity, null));
+    }
+
+    void put(Object entity, Object[] snapshot) {
+        expunge();
+        snapshots.put(new IdentityKey(entity, queue), snapshot);
+    }
+
+    void remove(Object entity) {
+        snapshots.remove(new IdentityKey(entity, null));
+    }
+
+    int size() {
+        expunge();
+        return snapshots.size();
+    }
+
+    void expunge() {
+        Reference<?> ref;
+        while ((ref = queue.poll())!=null) {
+            snapshots.remove(ref);
+        }
+    }
+
+    static class IdentityKey extends WeakReference<Object> {
+
+        final int hash;
+
+        IdentityKey(Object entity, ReferenceQueue<Object> queue) {
+            super(entity, queue);
+            this.hash = System.identityHashCode(entity);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o==this)
+                return true;
+            if ( ! (o instanceof IdentityKey))
+                return false;
+            Object entity = get();
+            return entity!=null && entity==((IdentityKey) o).get();
+        }
+    }
+}
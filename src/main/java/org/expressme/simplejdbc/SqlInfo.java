@@ -0,0 +1,305 @@
+package org.expressme.simplejdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Analysis result of SQL statement, which is cached by SQL text.
+ *
+ * @author Michael Liao
+ */
+class SqlInfo {
+
+    static final int SELECT = 1;
+    static final int INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int OTHER = 0;
+
+    final String sql;
+    final int type;
+
+    /**
+     * Main table: the first table after "from" of select or delete, the
+     * table after "update", or the table after "into" of insert. Null if not
+     * found.
+     */
+    final String tableName;
+
+    /**
+     * All tables referenced in statement, including joins and subqueries.
+     */
+    final String[] tableNames;
+
+    /**
+     * True if select ends with "for update" or "lock in share mode".
+     */
+    final boolean locking;
+
+    /**
+     * Columns of the outermost "order by" as "column" or "column desc", with 
+     * null for an expression which is not a plain column. Null if not ordered.
+     */
+    final String[] orderBy;
+
+    /**
+     * Resolved entity operation of main table, set on first use.
+     */
+    volatile EntityOperation<?> entityOperation;
+
+    SqlInfo(String sql, int type, String tableName, String[] tableNames, boolean locking, String[] orderBy) {
+        this.sql = sql;
+        this.type = type;
+        this.tableName = tableName;
+        this.tableNames = tableNames;
+        this.locking = locking;
+        this.orderBy = orderBy;
+    }
+
+    boolean isSelect() {
+        return type==SELECT;
+    }
+
+    static final String[] NOT_ALIAS = {
+        "where", "group", "order", "limit", "having", "join", "inner", "left", "right", "outer",
+        "cross", "natural", "straight_join", "on", "using", "union", "for", "set", "values",
+        "select", "lock", "procedure", "into", "as", "partition", "force", "ignore", "use"
+    };
+
+    /**
+     * Parse SQL by a tokenizer which skips string literals, quoted names and
+     * comments, instead of a backtracking regular expression.
+     */
+    static SqlInfo parse(String sql) {
+        List<String> tokens = tokenize(sql);
+        int type = OTHER;
+        if ( ! tokens.isEmpty()) {
+            String first = tokens.get(0);
+            if ("select".equalsIgnoreCase(first) || "(".equals(first))
+                type = SELECT;
+            else if ("insert".equalsIgnoreCase(first) || "replace".equalsIgnoreCase(first))
+                type = INSERT;
+            else if ("update".equalsIgnoreCase(first))
+                type = UPDATE;
+            else if ("delete".equalsIgnoreCase(first))
+                type = DELETE;
+        }
+        String tableName = null;
+        boolean mainFound = false;
+        List<String> tableNames = new ArrayList<String>();
+        int depth = 0;
+        for (int i=0; i<tokens.size(); i++) {
+            String token = tokens.get(i);
+            if ("(".equals(token)) {
+                depth++;
+                continue;
+            }
+            if (")".equals(token)) {
+                depth--;
+                continue;
+            }
+            boolean from = "from".equalsIgnoreCase(token);
+            boolean tableFollows = from
+                    || "join".equalsIgnoreCase(token)
+                    || "straight_join".equalsIgnoreCase(token)
+                    || "into".equalsIgnoreCase(token)
+                    || ("update".equalsIgnoreCase(token) && i==0);
+            if ( ! tableFollows)
+                continue;
+            if (depth==0 && ! mainFound) {
+                // main table is the first table after this token at any depth:
+                if ((type==SELECT || type==DELETE) && from)
+                    mainFound = true;
+                else if (type==INSERT && "into".equalsIgnoreCase(token))
+                    mainFound = true;
+                else if (type==UPDATE && i==0)
+                    mainFound = true;
+            }
+            // read table list, "from A a, B b":
+            int n = i + 1;
+            while (n < tokens.size()) {
+                String name = tokens.get(n);
+                if ( ! isName(name))
+                    break;
+                // schema.table:
+                while (n + 2 < tokens.size() && ".".equals(tokens.get(n + 1)) && isName(tokens.get(n + 2))) {
+                    n += 2;
+                    name = tokens.get(n);
+                }
+                name = unquote(name);
+                tableNames.add(name);
+                if (mainFound && tableName==null)
+                    tableName = name;
+                n++;
+                if ( ! from)
+                    break;
+                // skip alias:
+                if (n < tokens.size() && "as".equalsIgnoreCase(tokens.get(n)))
+                    n++;
+                if (n < tokens.size() && isName(tokens.get(n)) && ! isKeyword(tokens.get(n)))
+                    n++;
+                if (n < tokens.size() && ",".equals(tokens.get(n)))
+                    n++;
+                else
+                    break;
+            }
+        }
+        if (mainFound && tableName==null && ! tableNames.isEmpty())
+            tableName = tableNames.get(0);
+        int n = tokens.size();
+        boolean locking = n > 2 && "for".equalsIgnoreCase(tokens.get(n - 2))
+                && ("update".equalsIgnoreCase(tokens.get(n - 1)) || "share".equalsIgnoreCase(tokens.get(n - 1)));
+        if (n > 4 && "lock".equalsIgnoreCase(tokens.get(n - 4)) && "mode".equalsIgnoreCase(tokens.get(n - 1)))
+            locking = true;
+        String[] orderBy = type==SELECT ? parseOrderBy(tokens) : null;
+        return new SqlInfo(sql, type, tableName, tableNames.toArray(new String[tableNames.size()]), locking, orderBy);
+    }
+
+    /**
+     * Parse the last "order by" outside parentheses, "order by a.name desc, id".
+     */
+    static String[] parseOrderBy(List<String> tokens) {
+        int start = (-1);
+        int depth = 0;
+        for (int i=0; i<tokens.size() - 1; i++) {
+            String token = tokens.get(i);
+            if ("(".equals(token))
+                depth++;
+            else if (")".equals(token))
+                depth--;
+            else if (depth==0 && "order".equalsIgnoreCase(token) && "by".equalsIgnoreCase(tokens.get(i + 1)))
+                start = i + 2;
+        }
+        if (start==(-1))
+            return null;
+        List<String> columns = new ArrayList<String>();
+        int i = start;
+        while (i < tokens.size()) {
+            // read one item until "," or end of order by:
+            int end = i;
+            depth = 0;
+            while (end < tokens.size()) {
+                String token = tokens.get(end);
+                if ("(".equals(token))
+                    depth++;
+                else if (")".equals(token))
+                    depth--;
+                else if (depth==0 && (",".equals(token) || "limit".equalsIgnoreCase(token) 
+                        || "for".equalsIgnoreCase(token) || "lock".equalsIgnoreCase(token)))
+                    break;
+                end++;
+            }
+            List<String> item = tokens.subList(i, end);
+            boolean desc = false;
+            if ( ! item.isEmpty()) {
+                String last = item.get(item.size() - 1);
+                if ("desc".equalsIgnoreCase(last) || "asc".equalsIgnoreCase(last)) {
+                    desc = "desc".equalsIgnoreCase(last);
+                    item = item.subList(0, item.size() - 1);
+                }
+            }
+            String column = null;
+            // column or alias.column:
+            if (item.size()==1 && isName(item.get(0)))
+                column = unquote(item.get(0));
+            else if (item.size()==3 && isName(item.get(0)) && ".".equals(item.get(1)) && isName(item.get(2)))
+                column = unquote(item.get(2));
+            columns.add(column==null ? null : (desc ? column + " desc" : column));
+            if (end < tokens.size() && ",".equals(tokens.get(end)))
+                i = end + 1;
+            else
+                break;
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    static boolean isName(String token) {
+        char c = token.charAt(0);
+        return c=='`' || c=='"' || c=='_' || Character.isLetter(c);
+    }
+
+    static boolean isKeyword(String token) {
+        for (String keyword : NOT_ALIAS) {
+            if (keyword.equalsIgnoreCase(token))
+                return true;
+        }
+        return false;
+    }
+
+    static String unquote(String name) {
+        char c = name.charAt(0);
+        if ((c=='`' || c=='"') && name.length() > 1)
+            return name.substring(1, name.length() - 1);
+        return name;
+    }
+
+    /**
+     * Split SQL into names, numbers and single-char punctuations. String
+     * literals and comments are dropped.
+     */
+    static List<String> tokenize(String sql) {
+        List<String> tokens = new ArrayList<String>();
+        int len = sql.length();
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            }
+            else if (c=='\'') {
+                // string literal:
+                i++;
+                while (i < len) {
+                    char ch = sql.charAt(i);
+                    if (ch=='\\') {
+                        i += 2;
+                    }
+                    else if (ch=='\'') {
+                        i++;
+                        if (i < len && sql.charAt(i)=='\'')
+                            i++;
+                        else
+                            break;
+                    }
+                    else {
+                        i++;
+                    }
+                }
+            }
+            else if (c=='`' || c=='"') {
+                // quoted name:
+                int end = sql.indexOf(c, i + 1);
+                if (end==(-1))
+                    end = len - 1;
+                tokens.add(sql.substring(i, end + 1));
+                i = end + 1;
+            }
+            else if (c=='-' && i + 1 < len && sql.charAt(i + 1)=='-' || c=='#') {
+                // line comment:
+                int end = sql.indexOf('\n', i);
+                i = end==(-1) ? len : end + 1;
+            }
+            else if (c=='/' && i + 1 < len && sql.charAt(i + 1)=='*') {
+                // block comment:
+                int end = sql.indexOf("*/", i + 2);
+                i = end==(-1) ? len : end + 2;
+            }
+            else if (Character.isLetterOrDigit(c) || c=='_' || c=='$') {
+                int start = i;
+                while (i < len) {
+                    char ch = sql.charAt(i);
+                    if (Character.isLetterOrDigit(ch) || ch=='_' || ch=='$')
+                        i++;
+                    else
+                        break;
+                }
+                tokens.add(sql.substring(start, i));
+            }
+            else {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+}
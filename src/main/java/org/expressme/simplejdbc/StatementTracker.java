@@ -0,0 +1,46 @@
+package org.expressme.simplejdbc;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Track the statement executed by an async task, so cancel of the task 
+ * could cancel the statement. A task querying shards in parallel runs one 
+ * statement on each shard thread.
+ * 
+ * @author Michael Liao
+ */
+class StatementTracker {
+
+    static final ThreadLocal<StatementTracker> current = new ThreadLocal<StatementTracker>();
+
+    static final Log log = LogFactory.getLog(StatementTracker.class);
+
+    // last statement of each thread:
+    final Map<Thread, Statement> statements = new ConcurrentHashMap<Thread, Statement>();
+    volatile boolean cancelled = false;
+
+    void register(Statement statement) throws SQLException {
+        statements.put(Thread.currentThread(), statement);
+        if (cancelled)
+            statement.cancel();
+    }
+
+    void cancel() {
+        cancelled = true;
+        for (Statement stmt : statements.values()) {
+            try {
+                stmt.cancel();
+            }
+            catch (SQLException e) {
+                // statement may be closed already:
+                log.debug("Could not cancel statement.", e);
+            }
+        }
+    }
+}
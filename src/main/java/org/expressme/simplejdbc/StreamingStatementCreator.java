@@ -0,0 +1,59 @@
+package org.expressme.simplejdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * Create forward-only, read-only prepared statement with fetch size and 
+ * query timeout, so large results could be streamed.
+ * 
+ * @author Michael Liao
+ */
+class StreamingStatementCreator implements PreparedStatementCreator, SqlProvider {
+
+    final String sql;
+    final Object[] params;
+    final int fetchSize;
+    final int queryTimeout;
+
+    public StreamingStatementCreator(String sql, Object[] params, int fetchSize) {
+        this(sql, params, fetchSize, 0);
+    }
+
+    public StreamingStatementCreator(String sql, Object[] params, int fetchSize, int queryTimeout) {
+        this.sql = sql;
+        this.params = params;
+        this.fetchSize = fetchSize;
+        this.queryTimeout = queryTimeout;
+    }
+
+    public PreparedStatement createPreparedStatement(Connection conn) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            if (fetchSize!=0)
+                ps.setFetchSize(fetchSize);
+            if (queryTimeout > 0)
+                ps.setQueryTimeout(queryTimeout);
+            for (int i=0; i<params.length; i++) {
+                StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, params[i]);
+            }
+        }
+        catch (SQLException e) {
+            JdbcUtils.closeStatement(ps);
+            throw e;
+        }
+        return ps;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+}
@@ -2,13 +2,8 @@ package org.expressme.simplejdbc;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.sql.Date;
-import java.sql.Timestamp;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Utils for db operation.
@@ -17,25 +12,21 @@ import java.util.Set;
  */
 class Utils {
 
-    static final Set<Class<?>> SUPPORTED_SQL_OBJECTS = new HashSet<Class<?>>();
-
-    static {
-        Class<?>[] classes = {
-                boolean.class, Boolean.class,
-                short.class, Short.class,
-                int.class, Integer.class,
-                long.class, Long.class,
-                float.class, Float.class,
-                double.class, Double.class,
-                String.class,
-                Date.class,
-                Timestamp.class
-        };
-        SUPPORTED_SQL_OBJECTS.addAll(Arrays.asList(classes));
-    }
-
-    static boolean isSupportedSQLObject(Class<?> clazz) {
-        return clazz.isEnum() || SUPPORTED_SQL_OBJECTS.contains(clazz);
+    /**
+     * Estimate bytes of parameter value when sent in SQL statement.
+     */
+    static int estimateBytes(Object value) {
+        if (value==null)
+            return 5;
+        if (value instanceof String)
+            return ((String) value).length() * 3 + 3;
+        if (value instanceof byte[])
+            return ((byte[]) value).length * 2 + 4;
+        if (value instanceof Number || value instanceof Boolean)
+            return 21;
+        if (value instanceof java.util.Date)
+            return 30;
+        return value.toString().length() * 3 + 3;
     }
 
     static Map<String, Method> findPublicGetters(Class<?> clazz) {
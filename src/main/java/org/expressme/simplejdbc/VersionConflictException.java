@@ -0,0 +1,43 @@
+package org.expressme.simplejdbc;
+
+import java.util.List;
+
+/**
+ * Exception when update of versioned entities affects no row, because the 
+ * version in database is changed by others, or the entity is deleted.
+ * 
+ * @author Michael Liao
+ */
+public class VersionConflictException extends DbException {
+
+    private static final long serialVersionUID = 1L;
+
+    final List<Object> entities;
+    final int[] indexes;
+
+    public VersionConflictException(String message, List<Object> entities, int[] indexes) {
+        super(message);
+        this.entities = entities;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Get entities which are not updated because of conflict.
+     * 
+     * @return Conflicted entities.
+     */
+    public List<Object> getEntities() {
+        return entities;
+    }
+
+    /**
+     * Get indexes of conflicted entities in the updated entities, which is 
+     * [0] if only one entity is updated.
+     * 
+     * @return Indexes of conflicted entities.
+     */
+    public int[] getIndexes() {
+        return indexes;
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.expressme.simplejdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.expressme.test.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+public class AsyncDbTest {
+
+    Db db = null;
+    AsyncDb async = null;
+
+    @Before
+    public void setUp() throws Exception {
+        ApplicationContext context = new ClassPathXmlApplicationContext("AsyncDbTest.xml");
+        DataSource dataSource = context.getBean(DataSource.class);
+        Connection conn = dataSource.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.execute("drop table if exists User");
+        stmt.execute("create table User (id bigint not null primary key, name varchar(50) not null, passwd varchar(50) not null, css_style_name varchar(50) null)");
+        stmt.close();
+        conn.close();
+        db = context.getBean(Db.class);
+        async = new AsyncDb(db, 1);
+    }
+
+    @After
+    public void tearDown() {
+        async.shutdown();
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        async.create(new User(1L, "async", "password")).get();
+        CompletableFuture<User> user = async.getById(User.class, 1L);
+        CompletableFuture<Long> count = async.queryForLong("select count(*) from User");
+        assertEquals("async", user.get().getName());
+        assertEquals(1L, count.get().longValue());
+        assertArrayEquals(new long[] { 1L }, async.queryForLongArray("select id from User").get());
+        assertEquals("async", async.getProjectionById(User.class, DbTest.UserName.class, 1L).get().getName());
+        try {
+            async.getById(Object.class, 1L).get();
+            fail("Expect exception.");
+        }
+        catch (java.util.concurrent.ExecutionException e) {
+            assertTrue(e.getCause() instanceof DbException);
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CompletableFuture<Long> slow = async.queryForLong("select count(*) from system_range(1, 100000) a, system_range(1, 100000) b");
+        // waits for the only permit:
+        CompletableFuture<Long> next = async.queryForLong("select count(*) from User");
+        Thread.sleep(200);
+        assertTrue(slow.cancel(true));
+        try {
+            slow.get();
+            fail("Expect cancellation.");
+        }
+        catch (CancellationException e) {
+            // ok
+        }
+        assertEquals(0L, next.get(10, TimeUnit.SECONDS).longValue());
+    }
+}
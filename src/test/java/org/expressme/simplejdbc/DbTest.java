@@ -2,12 +2,25 @@ package org.expressme.simplejdbc;
 
 import static org.junit.Assert.*;
 
+import java.math.BigDecimal;
+import java.net.URI;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
 
 import javax.sql.DataSource;
 
+import org.expressme.test.Account;
 import org.expressme.test.User;
 import org.junit.Before;
 import org.junit.Test;
@@ -129,6 +142,33 @@ public class DbTest {
         assertEquals(users.length, db.queryForLong("select count(*) from User where name=? and id>=?", "query_for_int", ID));
     }
 
+    @Test
+    public void testQueryForLongArray() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<100; i++) {
+            users.add(new User(id++, "query_for_long_array", "password-" + i));
+        }
+        db.createAll(users);
+        long[] ids = db.queryForLongArray("select id from User where name=? and id>=? order by id", "query_for_long_array", ID);
+        assertEquals(100, ids.length);
+        assertEquals(ID, ids[0]);
+        assertEquals(ID + 99, ids[99]);
+        int[] lengths = db.queryForIntArray("select length(passwd) from User where name=? and id>=? order by id", "query_for_long_array", ID);
+        assertEquals(100, lengths.length);
+        assertEquals(10, lengths[0]);
+        assertEquals(11, lengths[99]);
+        assertEquals(0, db.queryForLongArray("select id from User where name=?", "no_such_user").length);
+        db.setFetchSize(7);
+        final long[] sum = { 0 };
+        db.queryForEachLong("select id from User where name=? and id>=?", new LongConsumer() {
+            public void accept(long value) {
+                sum[0] += value;
+            }
+        }, "query_for_long_array", ID);
+        assertEquals(100 * ID + 4950, sum[0]);
+    }
+
     @Test
     public void testQueryForObject() {
         final long ID = id++;
@@ -169,6 +209,118 @@ public class DbTest {
         assertEquals("password-4", users_42.get(0).getPasswd());
     }
 
+    @Test
+    public void testQueryForEach() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<10; i++) {
+            users.add(new User(id++, "query_for_each", "password-" + i));
+        }
+        db.createAll(users);
+        db.setFetchSize(3);
+        final List<User> us = new ArrayList<User>();
+        db.queryForEach("select * from User where name=? and id>=? order by id", new Consumer<User>() {
+            public void accept(User u) {
+                us.add(u);
+            }
+        }, "query_for_each", ID);
+        assertEquals(users.size(), us.size());
+        assertEquals("password-9", us.get(9).getPasswd());
+    }
+
+    @Test
+    public void testQueryForIterator() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<10; i++) {
+            users.add(new User(id++, "query_for_iterator", "password-" + i));
+        }
+        db.createAll(users);
+        ResultIterator<User> it = db.queryForIterator("select * from User where id>=? order by id", ID);
+        int n = 0;
+        while (it.hasNext()) {
+            assertEquals("password-" + n, it.next().getPasswd());
+            n++;
+        }
+        assertEquals(users.size(), n);
+        Stream<User> stream = db.queryForStream("select * from User where id>=? order by id", ID);
+        try {
+            assertEquals("password-0", stream.findFirst().get().getPasswd());
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testQueryForIteratorClosedOnMappingError() throws Exception {
+        createAccountTable();
+        db.jdbcTemplate.update("insert into Account (id, status, version) values (?, ?, ?)", id++, "NO_SUCH_STATUS", 0);
+        DbMetrics metrics = new DbMetrics();
+        db.setOperationListener(metrics);
+        ResultIterator<Account> it = db.queryForIterator("select * from Account");
+        assertTrue(it.hasNext());
+        try {
+            it.next();
+            fail("Expect mapping error.");
+        }
+        catch (RuntimeException e) {
+            // ok
+        }
+        assertTrue(it.closed);
+        assertFalse(it.hasNext());
+        assertEquals(1, metrics.getStats("Account", "queryForIterator").getErrors());
+    }
+
+    @Test
+    public void testQueryForPage() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<5; i++) {
+            users.add(new User(id++, "query_for_page", "password-" + (i % 2)));
+        }
+        users.get(0).setCssStyleName("blue");
+        users.get(1).setCssStyleName("blue");
+        db.createAll(users);
+        Page<User> page = db.queryForPage(User.class, null, 2);
+        assertEquals(2, page.getList().size());
+        assertEquals(ID, page.getList().get(0).getId());
+        page = db.queryForPage(User.class, page.getNext(), 2);
+        assertEquals(ID + 2, page.getList().get(0).getId());
+        page = db.queryForPage(User.class, page.getNext(), 2);
+        assertEquals(1, page.getList().size());
+        assertFalse(page.hasNext());
+
+        // order by passwd desc, id desc:
+        page = db.queryForPage(User.class, "name=?", "passwd desc", null, 3, "query_for_page");
+        assertEquals(3, page.getList().size());
+        assertEquals(ID + 3, page.getList().get(0).getId());
+        assertEquals(ID + 1, page.getList().get(1).getId());
+        assertEquals(ID + 4, page.getList().get(2).getId());
+        page = db.queryForPage(User.class, "name=?", "passwd desc", page.getNext(), 3, "query_for_page");
+        assertEquals(2, page.getList().size());
+        assertEquals(ID + 2, page.getList().get(0).getId());
+        assertEquals(ID, page.getList().get(1).getId());
+        assertFalse(page.hasNext());
+
+        // null sort values are first, and last if desc:
+        assertEquals(Arrays.asList(ID + 2, ID + 3, ID + 4, ID, ID + 1), pageIds("cssStyleName", 2));
+        assertEquals(Arrays.asList(ID + 1, ID, ID + 4, ID + 3, ID + 2), pageIds("cssStyleName desc", 2));
+    }
+
+    List<Long> pageIds(String orderBy, int max) {
+        List<Long> ids = new ArrayList<Long>();
+        Object after = null;
+        do {
+            Page<User> page = db.queryForPage(User.class, "name=?", orderBy, after, max, "query_for_page");
+            for (User user : page.getList()) {
+                ids.add(user.getId());
+            }
+            after = page.getNext();
+        } while (after!=null);
+        return ids;
+    }
+
     @Test
     public void testGetById() {
         final long ID = id++;
@@ -181,12 +333,517 @@ public class DbTest {
         assertEquals(user.getPasswd(), u.getPasswd());
     }
 
+    @Test
+    public void testWarmUp() {
+        assertEquals(2, db.warmUp());
+        assertNotNull(db.entityMap.get("User").SQL_INSERT);
+        assertNotNull(db.entityMap.get("User").SQL_UPDATE_BY_ID);
+        assertNotNull(db.entityMap.get("Account").SQL_SELECT_BY_ID);
+    }
+
+    @Test
+    public void testGetEntityOperation() throws Exception {
+        createAccountTable();
+        assertSame(db.getEntityOperation(User.class), db.getEntityOperationByEntityName("User"));
+        assertSame(db.getEntityOperationByEntityName("Account"), db.getEntityOperation(Account.class));
+        assertNull(db.getById(Account.class, 123L));
+    }
+
+    @Test
+    public void testColumnName() {
+        final long ID = id++;
+        User user = new User(ID, "column_name", "password");
+        user.setCssStyleName("blue");
+        db.create(user);
+        User u = db.getById(User.class, ID);
+        assertEquals("blue", u.getCssStyleName());
+        List<User> us = db.queryForList("select id, css_style_name from User where id=?", ID);
+        assertEquals(1, us.size());
+        assertEquals(ID, us.get(0).getId());
+        assertEquals("blue", us.get(0).getCssStyleName());
+        assertNull(us.get(0).getName());
+    }
+
+    @Test
+    public void testEntityCache() {
+        final long ID = id++;
+        db.create(new User(ID, "entity_cache", "password"));
+        db.enableEntityCache(User.class, 100, 60000);
+        User u1 = db.getById(User.class, ID);
+        u1.setPasswd("changed-by-caller");
+        User u2 = db.getById(User.class, ID);
+        assertEquals("password", u2.getPasswd());
+        assertEquals(1, db.getEntityCacheStats(User.class).getHits());
+
+        u2.setPasswd("updated-password");
+        db.updateEntity(u2);
+        assertEquals("updated-password", db.getById(User.class, ID).getPasswd());
+
+        db.executeUpdate("update User set passwd=? where id=?", "execute-update", ID);
+        assertEquals("execute-update", db.getById(User.class, ID).getPasswd());
+
+        db.deleteById(User.class, ID);
+        assertNull(db.getById(User.class, ID));
+        CacheStats stats = db.getEntityCacheStats(User.class);
+        assertEquals(1, stats.getHits());
+        assertEquals(4, stats.getMisses());
+        db.disableEntityCache(User.class);
+        assertNull(db.getEntityCacheStats(User.class));
+    }
+
+    @Test
+    public void testEntityCacheCopiesMutableValues() throws Exception {
+        createAccountTable();
+        Account account = new Account();
+        account.setId(id++);
+        account.setAvatar(new byte[] { 1, 2, 3 });
+        account.setUpdatedAt(new java.util.Date(1300000000000L));
+        db.create(account);
+        db.enableEntityCache(Account.class, 100, 60000);
+        Account a1 = db.getById(Account.class, account.getId());
+        a1.getAvatar()[0] = 9;
+        a1.getUpdatedAt().setTime(0L);
+        Account a2 = db.getById(Account.class, account.getId());
+        assertEquals(1, db.getEntityCacheStats(Account.class).getHits());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, a2.getAvatar());
+        assertEquals(new java.util.Date(1300000000000L), a2.getUpdatedAt());
+    }
+
+    @Test
+    public void testQueryCache() {
+        final long ID = id++;
+        db.create(new User(ID, "query_cache", "password"));
+        db.enableQueryCache(1024 * 1024, 60000);
+        assertEquals(1, db.queryForLong("select count(*) from User where name=?", "query_cache"));
+        List<User> us = db.queryForList("select * from User where name=?", "query_cache");
+        us.get(0).setPasswd("changed-by-caller");
+        us = db.queryForList("select * from User where name=?", "query_cache");
+        assertEquals("password", us.get(0).getPasswd());
+        assertEquals(1, db.queryForLong("select count(*) from User where name=?", "query_cache"));
+        assertEquals(2, db.getQueryCacheStats().getHits());
+
+        db.create(new User(id++, "query_cache", "password"));
+        assertEquals(2, db.queryForLong("select count(*) from User where name=?", "query_cache"));
+        db.executeUpdate("delete from User where id=?", ID);
+        assertEquals(1, db.queryForLong("select count(*) from User where name=?", "query_cache"));
+        us = db.queryForList("select * from User where name=?", "query_cache");
+        assertEquals(1, us.size());
+        assertEquals(2, db.getQueryCacheStats().getHits());
+        // one table version per statement of deleteByIds:
+        long version = db.queryCache.tableVersion("User").get();
+        assertEquals(1, db.deleteByIds(User.class, Arrays.asList(us.get(0).getId(), -1L, -2L)));
+        assertEquals(version + 1, db.queryCache.tableVersion("User").get());
+        assertEquals(0, db.queryForLong("select count(*) from User where name=?", "query_cache"));
+        db.disableQueryCache();
+        assertNull(db.getQueryCacheStats());
+    }
+
+    @Test
+    public void testDirtyTracking() {
+        final long ID = id++;
+        db.enableDirtyTracking(User.class);
+        db.create(new User(ID, "dirty_tracking", "password"));
+        User u = db.getById(User.class, ID);
+        db.executeUpdate("update User set name=? where id=?", "changed-by-others", ID);
+        // only passwd is written:
+        u.setPasswd("new-password");
+        db.updateEntity(u);
+        User u2 = db.getById(User.class, ID);
+        assertEquals("changed-by-others", u2.getName());
+        assertEquals("new-password", u2.getPasswd());
+        // no change, nothing is written:
+        db.executeUpdate("update User set passwd=? where id=?", "changed-by-others", ID);
+        db.updateEntity(u);
+        assertEquals("changed-by-others", db.getById(User.class, ID).getPasswd());
+        // untracked entity is fully updated:
+        db.disableDirtyTracking(User.class);
+        db.updateEntity(u);
+        assertEquals("dirty_tracking", db.getById(User.class, ID).getName());
+        // createAll tracks and deleteEntities untracks:
+        db.enableDirtyTracking(User.class);
+        List<User> users = Arrays.asList(new User(id++, "dirty_tracking", "password"), new User(id++, "dirty_tracking", "password"));
+        db.createAll(users);
+        SnapshotRegistry snapshots = db.getEntityOperation(User.class).snapshots;
+        assertNotNull(snapshots.get(users.get(1)));
+        db.deleteEntities(users);
+        assertNull(snapshots.get(users.get(0)));
+        assertNull(snapshots.get(users.get(1)));
+    }
+
+    @Test
+    public void testMetrics() {
+        DbMetrics metrics = new DbMetrics();
+        db.setOperationListener(metrics);
+        final long ID = id;
+        for (int i=0; i<3; i++) {
+            db.create(new User(id++, "metrics", "password"));
+        }
+        db.getById(User.class, ID);
+        assertEquals(3, db.queryForList("select * from User where name=?", "metrics").size());
+        assertEquals(3, db.queryForLong("select count(*) from User where name=?", "metrics"));
+        try {
+            db.queryForList("select * from User where no_such_column=?", 0);
+            fail("Expect exception.");
+        }
+        catch (RuntimeException e) {
+            // ok
+        }
+        assertEquals(3, metrics.getStats("User", "create").getCount());
+        assertEquals(3, metrics.getStats("User", "create").getRows());
+        assertEquals(1, metrics.getStats("User", "getById").getRows());
+        OperationStats list = metrics.getStats("User", "queryForList");
+        assertEquals(2, list.getCount());
+        assertEquals(1, list.getErrors());
+        assertEquals(3, list.getRows());
+        assertTrue(list.getMappingNanos() > 0);
+        assertTrue(list.getJdbcNanos() > 0);
+        assertTrue(list.getPercentileNanos(99) >= list.getMeanNanos() / 2);
+        assertEquals(1, metrics.getStats("User", "queryForLong").getCount());
+        try (Stream<User> users = db.queryForStream("select * from User where name=?", "metrics")) {
+            assertEquals(3, users.count());
+        }
+        assertEquals(1, metrics.getStats("User", "queryForIterator").getCount());
+        assertEquals(3, metrics.getStats("User", "queryForIterator").getRows());
+        db.setSlowQueryMillis(1);
+        db.queryForList("select * from User where name=?", "metrics");
+    }
+
     @Test
     public void testCreate() {
         User user = new User(id++, "dbtest", "password");
         db.create(user);
     }
 
+    @Test
+    public void testCreateAll() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<25; i++) {
+            users.add(new User(id++, "create_all", "password-" + i));
+        }
+        db.setBatchSize(10);
+        int[] counts = db.createAll(users);
+        assertEquals(users.size(), counts.length);
+        assertEquals(users.size(), db.queryForLong("select count(*) from User where name=? and id>=?", "create_all", ID));
+        assertEquals("password-24", db.getById(User.class, ID + 24).getPasswd());
+    }
+
+    @Test
+    public void testCreateAllByExtendedInsert() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<150; i++) {
+            users.add(new User(id++, "extended_insert", "password-" + i));
+        }
+        db.setExtendedInsert(true);
+        int[] counts = db.createAll(users);
+        assertEquals(users.size(), counts.length);
+        assertEquals(users.size(), db.queryForLong("select count(*) from User where name=? and id>=?", "extended_insert", ID));
+        assertEquals("password-149", db.getById(User.class, ID + 149).getPasswd());
+        // small statements:
+        users.clear();
+        for (int i=0; i<20; i++) {
+            users.add(new User(id++, "extended_insert_2", "password-" + i));
+        }
+        db.setMaxStatementBytes(200);
+        assertEquals(users.size(), db.createAll(users).length);
+        assertEquals(users.size(), db.queryForLong("select count(*) from User where name=?", "extended_insert_2"));
+        // top tier is batchSize:
+        assertArrayEquals(new int[] { 1000, 128, 16, 1 }, EntityOperation.multiInsertRows(1000));
+        assertArrayEquals(new int[] { 16, 1 }, EntityOperation.multiInsertRows(16));
+        assertArrayEquals(new int[] { 4, 1 }, EntityOperation.multiInsertRows(4));
+    }
+
+    @Test
+    public void testUpdateEntities() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<5; i++) {
+            users.add(new User(id++, "update_entities", "old-password"));
+        }
+        db.createAll(users);
+        for (User user : users) {
+            user.setPasswd("new-password");
+        }
+        db.setBatchSize(2);
+        int[] counts = db.updateEntities(users);
+        assertEquals(users.size(), counts.length);
+        assertEquals(users.size(), db.queryForLong("select count(*) from User where passwd=? and id>=?", "new-password", ID));
+    }
+
+    @Test
+    public void testDeleteByIds() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        List<Long> ids = new ArrayList<Long>();
+        for (int i=0; i<7; i++) {
+            ids.add(id);
+            users.add(new User(id++, "delete_by_ids", "password"));
+        }
+        db.createAll(users);
+        db.setMaxInListSize(3);
+        assertEquals(5, db.deleteByIds(User.class, ids.subList(0, 5)));
+        assertEquals(2, db.deleteEntities(users.subList(4, 7)));
+        assertEquals(0, db.queryForLong("select count(*) from User where id>=?", ID));
+    }
+
+    @Test
+    public void testGetByIds() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<7; i++) {
+            users.add(new User(id++, "get_by_ids", "password-" + i));
+        }
+        db.createAll(users);
+        db.enableEntityCache(User.class, 100, 60000);
+        db.getById(User.class, ID + 6);
+        db.setMaxInListSize(3);
+        List<Long> ids = Arrays.asList(ID + 6, ID + 100, ID + 2, ID, ID + 5, ID + 1, ID + 4, ID + 3);
+        Map<Long, User> map = db.getByIds(User.class, ids);
+        assertEquals(Arrays.asList(ID + 6, ID + 2, ID, ID + 5, ID + 1, ID + 4, ID + 3), new ArrayList<Long>(map.keySet()));
+        for (Long key : map.keySet()) {
+            assertEquals(key.longValue(), map.get(key).getId());
+            assertEquals("password-" + (key - ID), map.get(key).getPasswd());
+        }
+        assertEquals(1, db.getEntityCacheStats(User.class).getHits());
+        assertEquals(7, db.getEntityCacheStats(User.class).getSize());
+    }
+
+    void createAccountTable() throws Exception {
+        DataSource dataSource = db.jdbcTemplate.getDataSource();
+        Connection conn = dataSource.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.execute("drop table if exists Account");
+        stmt.execute("create table Account (id bigint not null primary key, status varchar(20), level int, balance decimal(20,4), avatar varbinary(100), created_at datetime, birthday date, updated_at datetime, homepage varchar(100), version int not null)");
+        stmt.close();
+        conn.close();
+    }
+
+    @Test
+    public void testConverters() throws Exception {
+        createAccountTable();
+        db.registerConverter(URI.class, new Converter<URI>() {
+            public Object toColumn(URI value) {
+                return value.toString();
+            }
+            public URI fromColumn(ResultSet rs, int index) throws SQLException {
+                String s = rs.getString(index);
+                return s==null ? null : URI.create(s);
+            }
+        });
+        Account account = new Account();
+        account.setId(id++);
+        account.setStatus(Account.Status.LOCKED);
+        account.setLevel(Account.Status.CLOSED);
+        account.setBalance(new BigDecimal("1234.5600"));
+        account.setAvatar(new byte[] { 1, 2, 3 });
+        account.setCreatedAt(LocalDateTime.of(2011, 3, 4, 5, 6, 7));
+        account.setBirthday(LocalDate.of(1990, 1, 2));
+        account.setUpdatedAt(new java.util.Date(1300000000000L));
+        account.setHomepage(URI.create("http://www.example.com/"));
+        db.create(account);
+
+        assertEquals("LOCKED", db.jdbcTemplate.queryForObject("select status from Account where id=?", String.class, account.getId()));
+        assertEquals(2, db.jdbcTemplate.queryForInt("select level from Account where id=?", account.getId()));
+        Account a = db.getById(Account.class, account.getId());
+        assertEquals(Account.Status.LOCKED, a.getStatus());
+        assertEquals(Account.Status.CLOSED, a.getLevel());
+        assertEquals(new BigDecimal("1234.5600"), a.getBalance());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, a.getAvatar());
+        assertEquals(LocalDateTime.of(2011, 3, 4, 5, 6, 7), a.getCreatedAt());
+        assertEquals(LocalDate.of(1990, 1, 2), a.getBirthday());
+        assertEquals(new java.util.Date(1300000000000L), a.getUpdatedAt());
+        assertEquals(URI.create("http://www.example.com/"), a.getHomepage());
+
+        a.setStatus(Account.Status.ACTIVE);
+        a.setLevel(null);
+        db.updateEntity(a);
+        List<Account> list = db.queryForList("select * from Account where status=?", "ACTIVE");
+        assertEquals(1, list.size());
+        assertNull(list.get(0).getLevel());
+
+        db.executeUpdate("update Account set status=? where id=?", "UNKNOWN", a.getId());
+        try {
+            db.getById(Account.class, a.getId());
+            fail("Unknown enum value should fail.");
+        }
+        catch (DbException e) {
+            assertTrue(e.getMessage().contains("UNKNOWN"));
+        }
+        try {
+            db.registerConverter(URI.class, null);
+            fail("Register converter after entities are used should fail.");
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testVersion() throws Exception {
+        createAccountTable();
+        Account account = new Account();
+        account.setId(id++);
+        account.setStatus(Account.Status.ACTIVE);
+        db.create(account);
+        assertEquals(0, account.getVersion());
+
+        Account a1 = db.getById(Account.class, account.getId());
+        Account a2 = db.getById(Account.class, account.getId());
+        a1.setStatus(Account.Status.LOCKED);
+        db.updateEntity(a1);
+        assertEquals(1, a1.getVersion());
+        assertEquals(1, db.queryForInt("select version from Account where id=?", account.getId()));
+
+        a2.setStatus(Account.Status.CLOSED);
+        try {
+            db.updateEntity(a2);
+            fail("Update of stale entity should fail.");
+        }
+        catch (VersionConflictException e) {
+            assertSame(a2, e.getEntities().get(0));
+        }
+        assertEquals(0, a2.getVersion());
+        try {
+            db.updateProperties(a2, "status");
+            fail("Update of stale entity should fail.");
+        }
+        catch (VersionConflictException e) {
+        }
+        assertEquals(Account.Status.LOCKED, db.getById(Account.class, account.getId()).getStatus());
+
+        db.updateProperties(a1, "balance");
+        assertEquals(2, a1.getVersion());
+
+        // batch reports conflicted rows and updates others:
+        Account b = new Account();
+        b.setId(id++);
+        b.setStatus(Account.Status.ACTIVE);
+        db.create(b);
+        a1.setStatus(Account.Status.CLOSED);
+        b.setStatus(Account.Status.CLOSED);
+        try {
+            db.updateEntities(Arrays.asList(a2, a1, b));
+            fail("Update of stale entity should fail.");
+        }
+        catch (VersionConflictException e) {
+            assertEquals(1, e.getEntities().size());
+            assertSame(a2, e.getEntities().get(0));
+            assertArrayEquals(new int[] { 0 }, e.getIndexes());
+        }
+        assertEquals(3, a1.getVersion());
+        assertEquals(1, b.getVersion());
+        assertEquals(Account.Status.CLOSED, db.getById(Account.class, b.getId()).getStatus());
+        assertEquals(3, db.getById(Account.class, account.getId()).getVersion());
+    }
+
+    @Test
+    public void testSave() {
+        final long ID = id++;
+        User user = new User(ID, "save", "password-1");
+        db.save(user);
+        assertEquals("password-1", db.getById(User.class, ID).getPasswd());
+        user.setPasswd("password-2");
+        db.save(user);
+        assertEquals("password-2", db.getById(User.class, ID).getPasswd());
+        assertEquals(1, db.queryForLong("select count(*) from User where id=?", ID));
+
+        List<User> users = new ArrayList<User>();
+        users.add(new User(ID, "save", "password-3"));
+        users.add(new User(id++, "save", "password-4"));
+        users.add(new User(id++, "save", "password-5"));
+        assertEquals(3, db.saveAll(users).length);
+        assertEquals(3, db.queryForLong("select count(*) from User where name=? and id>=?", "save", ID));
+        assertEquals("password-3", db.getById(User.class, ID).getPasswd());
+        assertEquals("password-5", db.getById(User.class, ID + 2).getPasswd());
+    }
+
+    @Test
+    public void testSaveVersionedEntity() throws Exception {
+        createAccountTable();
+        Account account = new Account();
+        account.setId(id++);
+        try {
+            db.save(account);
+            fail("Save of versioned entity should fail.");
+        }
+        catch (DbException e) {
+        }
+    }
+
+    public static class UserName {
+
+        long id;
+        String name;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    public static interface UserStyle {
+
+        String getName();
+
+        String getCssStyleName();
+    }
+
+    @Test
+    public void testProjection() {
+        final long ID = id;
+        List<User> users = new ArrayList<User>();
+        for (int i=0; i<5; i++) {
+            User user = new User(id++, "projection", "password-" + i);
+            user.setCssStyleName("style-" + i);
+            users.add(user);
+        }
+        db.createAll(users);
+        List<UserName> names = db.queryForProjection(User.class, UserName.class, "name=? and id>=? order by id", "projection", ID);
+        assertEquals(5, names.size());
+        assertEquals(ID + 4, names.get(4).getId());
+        assertEquals("projection", names.get(4).getName());
+        UserName name = db.getProjectionById(User.class, UserName.class, ID);
+        assertEquals(ID, name.getId());
+        assertNull(db.getProjectionById(User.class, UserName.class, -1L));
+
+        List<UserStyle> styles = db.queryForProjection(User.class, UserStyle.class, "name=? and id>=? order by id", "projection", ID);
+        assertEquals(5, styles.size());
+        assertEquals("style-2", styles.get(2).getCssStyleName());
+        assertEquals("projection", styles.get(2).getName());
+
+        List<User> partials = db.queryForProperties(User.class, new String[] { "id", "cssStyleName" }, "id=?", ID + 1);
+        assertEquals(1, partials.size());
+        assertEquals(ID + 1, partials.get(0).getId());
+        assertEquals("style-1", partials.get(0).getCssStyleName());
+        assertNull(partials.get(0).getName());
+        assertNull(partials.get(0).getPasswd());
+
+        // partial entity only updates changed properties if tracked:
+        db.enableDirtyTracking(User.class);
+        try {
+            User partial = db.<User>queryForProperties(User.class, new String[] { "id", "cssStyleName" }, "id=?", ID + 1).get(0);
+            partial.setCssStyleName("style-changed");
+            db.updateEntity(partial);
+            User u = db.getById(User.class, ID + 1);
+            assertEquals("style-changed", u.getCssStyleName());
+            assertEquals("password-1", u.getPasswd());
+        }
+        finally {
+            db.disableDirtyTracking(User.class);
+        }
+    }
+
     @Test
     public void testDeleteById() {
         final long ID = id++;
@@ -0,0 +1,39 @@
+package org.expressme.simplejdbc;
+
+import static org.junit.Assert.*;
+
+import org.expressme.test.User;
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+    @Test
+    public void testPutAndEvict() {
+        EntityCache<User> cache = new EntityCache<User>(new EntityOperation<User>(User.class), 10, 60000);
+        cache.put(1, new User(1L, "cached", "password"), cache.generation());
+        assertEquals("cached", cache.get(1L).getName());
+        long generation = cache.generation();
+        cache.evict(1L);
+        assertNull(cache.get(1L));
+        // stale row read before evict is not cached:
+        cache.put(1L, new User(1L, "stale", "password"), generation);
+        assertNull(cache.get(1L));
+    }
+
+    @Test
+    public void testEvictDuringPut() {
+        final EntityCache<?>[] holder = new EntityCache<?>[1];
+        EntityOperation<User> op = new EntityOperation<User>(User.class) {
+            @Override
+            User copy(User entity) {
+                // evict after the generation is checked by put:
+                holder[0].evict(entity.getId());
+                return super.copy(entity);
+            }
+        };
+        EntityCache<User> cache = new EntityCache<User>(op, 10, 60000);
+        holder[0] = cache;
+        cache.put(1L, new User(1L, "stale", "password"), cache.generation());
+        assertEquals(0, cache.cache.size());
+    }
+}
@@ -0,0 +1,36 @@
+package org.expressme.simplejdbc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+    @Test
+    public void testLruCache() {
+        LruCache<String, String> cache = new LruCache<String, String>(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C");
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.size());
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getEvictions());
+    }
+
+    @Test
+    public void testSegments() {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(64);
+        assertEquals(LruCache.SEGMENTS, cache.segments.length);
+        for (int i=0; i<1000; i++) {
+            cache.put(i, "v" + i);
+        }
+        assertTrue(cache.size() <= 64);
+        assertEquals(1000 - cache.size(), cache.getStats().getEvictions());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,42 @@
+package org.expressme.simplejdbc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+    @Test
+    public void testSegments() {
+        QueryCache cache = new QueryCache(QueryCache.SEGMENTS * QueryCache.MIN_SEGMENT_BYTES, 60000);
+        assertEquals(QueryCache.SEGMENTS, cache.segments.length);
+        String[] tables = { "User" };
+        for (int i=0; i<100; i++) {
+            cache.put(new QueryCache.Key(0, "select * from User where id=?", new Object[] { i }), "user-" + i, cache.versions(tables), 100);
+        }
+        assertEquals("user-7", cache.get(new QueryCache.Key(0, "select * from User where id=?", new Object[] { 7 }), tables));
+        assertEquals(100, cache.getStats().getSize());
+        cache.invalidate("user");
+        assertNull(cache.get(new QueryCache.Key(0, "select * from User where id=?", new Object[] { 7 }), tables));
+        cache.clear();
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    public void testMaxBytes() {
+        QueryCache cache = new QueryCache(2000, 60000);
+        assertEquals(1, cache.segments.length);
+        String[] tables = { "User" };
+        for (int i=0; i<20; i++) {
+            cache.put(new QueryCache.Key(0, "select * from User where id=?", new Object[] { i }), "user-" + i, cache.versions(tables), 200);
+        }
+        assertTrue(cache.segments[0].bytes <= 2000);
+        assertEquals(20 - cache.getStats().getSize(), cache.getStats().getEvictions());
+        // least recently used entries are evicted:
+        assertNull(cache.get(new QueryCache.Key(0, "select * from User where id=?", new Object[] { 0 }), tables));
+        assertEquals("user-19", cache.get(new QueryCache.Key(0, "select * from User where id=?", new Object[] { 19 }), tables));
+        // result larger than max bytes is not cached:
+        cache.put(new QueryCache.Key(0, "select * from User", new Object[0]), "all", cache.versions(tables), 5000);
+        assertNull(cache.get(new QueryCache.Key(0, "select * from User", new Object[0]), tables));
+    }
+}
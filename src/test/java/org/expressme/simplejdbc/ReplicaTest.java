@@ -0,0 +1,114 @@
+package org.expressme.simplejdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.expressme.test.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class ReplicaTest {
+
+    Db db = null;
+    PlatformTransactionManager transactionManager = null;
+
+    @Before
+    public void setUp() throws Exception {
+        ApplicationContext context = new ClassPathXmlApplicationContext("ReplicaTest.xml");
+        // each database has user 1 named by the database:
+        String[] names = { "primary", "replica1", "replica2" };
+        String[] dataSources = { "primaryDataSource", "replicaDataSource1", "replicaDataSource2" };
+        for (int i=0; i<names.length; i++) {
+            DataSource dataSource = context.getBean(dataSources[i], DataSource.class);
+            Connection conn = dataSource.getConnection();
+            Statement stmt = conn.createStatement();
+            stmt.execute("drop table if exists User");
+            stmt.execute("create table User (id bigint not null primary key, name varchar(50) not null, passwd varchar(50) not null, css_style_name varchar(50) null)");
+            stmt.execute("insert into User (id, name, passwd) values (1, '" + names[i] + "', 'password')");
+            stmt.close();
+            conn.close();
+        }
+        db = context.getBean(Db.class);
+        transactionManager = context.getBean(PlatformTransactionManager.class);
+    }
+
+    @Test
+    public void testReadFromReplicas() {
+        assertEquals("replica1", db.getById(User.class, 1L).getName());
+        assertEquals("replica2", db.getById(User.class, 1L).getName());
+        User u = db.queryForObject("select * from User where id=?", 1L);
+        assertEquals("replica1", u.getName());
+        // locking select is sent to primary:
+        u = db.queryForObject("select * from User where id=? for update", 1L);
+        assertEquals("primary", u.getName());
+        // writes are sent to primary:
+        db.create(new User(2L, "created", "password"));
+        assertNull(db.getById(User.class, 2L));
+        assertEquals(1, db.queryForLong("select count(*) from User"));
+    }
+
+    @Test
+    public void testReadYourWrites() {
+        db.setLoadBalancer(new RandomLoadBalancer());
+        db.setReadYourWritesMillis(60000);
+        assertTrue(db.getById(User.class, 1L).getName().startsWith("replica"));
+        db.updateProperties(new User(1L, "updated", "password"), "name");
+        assertEquals("updated", db.getById(User.class, 1L).getName());
+        db.setReadYourWritesMillis(1);
+        db.updateProperties(new User(1L, "updated-again", "password"), "name");
+        sleep(10);
+        assertTrue(db.getById(User.class, 1L).getName().startsWith("replica"));
+    }
+
+    @Test
+    public void testReadYourWritesAfterExecuteUpdate() {
+        db.setReadYourWritesMillis(60000);
+        db.executeUpdate("update User set name=? where id=?", "executed", 1L);
+        assertEquals("executed", db.getById(User.class, 1L).getName());
+        assertEquals("executed", db.<User>queryForObject("select * from User where id=?", 1L).getName());
+    }
+
+    @Test
+    public void testReadYourWritesAcrossAsyncCalls() throws Exception {
+        db.setReadYourWritesMillis(60000);
+        AsyncDb async = new AsyncDb(db, 2);
+        try {
+            // async write, then sync read:
+            async.updateProperties(new User(1L, "async-write", "password"), "name").get();
+            assertEquals("async-write", db.getById(User.class, 1L).getName());
+            assertEquals("async-write", async.getById(User.class, 1L).get().getName());
+        }
+        finally {
+            async.shutdown();
+        }
+    }
+
+    @Test
+    public void testTransactionOnPrimary() {
+        String name = new TransactionTemplate(transactionManager).execute(new TransactionCallback<String>() {
+            public String doInTransaction(TransactionStatus status) {
+                return db.getById(User.class, 1L).getName();
+            }
+        });
+        assertEquals("primary", name);
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
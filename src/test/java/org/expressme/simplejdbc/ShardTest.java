@@ -0,0 +1,145 @@
+package org.expressme.simplejdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.expressme.test.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public class ShardTest {
+
+    Db db = null;
+    JdbcTemplate shard0 = null;
+    JdbcTemplate shard1 = null;
+
+    @Before
+    public void setUp() throws Exception {
+        ApplicationContext context = new ClassPathXmlApplicationContext("ShardTest.xml");
+        for (String name : new String[] { "primaryDataSource", "shardDataSource0", "shardDataSource1" }) {
+            DataSource dataSource = context.getBean(name, DataSource.class);
+            Connection conn = dataSource.getConnection();
+            Statement stmt = conn.createStatement();
+            stmt.execute("drop table if exists User");
+            stmt.execute("create table User (id bigint not null primary key, name varchar(50) not null, passwd varchar(50) not null, css_style_name varchar(50) null)");
+            stmt.close();
+            conn.close();
+        }
+        shard0 = new JdbcTemplate(context.getBean("shardDataSource0", DataSource.class));
+        shard1 = new JdbcTemplate(context.getBean("shardDataSource1", DataSource.class));
+        db = context.getBean(Db.class);
+        db.enableSharding(User.class);
+    }
+
+    @Test
+    public void testSaveAll() {
+        db.setDialect(new H2Dialect());
+        db.create(new User(1, "user-1", "password"));
+        db.save(new User(1, "user-1", "new-password"));
+        assertEquals("new-password", shard1.queryForObject("select passwd from User where id=1", String.class));
+        List<User> users = new ArrayList<User>();
+        for (long id=1; id<=6; id++) {
+            users.add(new User(id, "user-" + id, "saved"));
+        }
+        assertEquals(6, db.saveAll(users).length);
+        assertEquals(3, shard0.queryForInt("select count(*) from User where passwd='saved'"));
+        assertEquals(3, shard1.queryForInt("select count(*) from User where passwd='saved'"));
+        assertEquals(6, db.queryForLong("select count(*) from User"));
+    }
+
+    @Test
+    public void testCrudById() {
+        for (long id=1; id<=10; id++) {
+            db.create(new User(id, "user-" + id, "password"));
+        }
+        assertEquals(5, shard0.queryForInt("select count(*) from User where mod(id, 2)=0"));
+        assertEquals(5, shard1.queryForInt("select count(*) from User where mod(id, 2)=1"));
+        User u = db.getById(User.class, 7L);
+        assertEquals("user-7", u.getName());
+        u.setPasswd("new-password");
+        db.updateEntity(u);
+        assertEquals("new-password", shard1.queryForObject("select passwd from User where id=7", String.class));
+        db.deleteById(User.class, 7L);
+        assertNull(db.getById(User.class, 7L));
+        assertEquals(9, db.queryForLong("select count(*) from User"));
+        assertEquals(9, db.queryForList("select * from User").size());
+    }
+
+    @Test
+    public void testBatch() {
+        List<User> users = new ArrayList<User>();
+        for (long id=1; id<=9; id++) {
+            users.add(new User(id, "user-" + id, "password"));
+        }
+        db.setBatchSize(4);
+        assertEquals(9, db.createAll(users).length);
+        assertEquals(4, shard0.queryForInt("select count(*) from User"));
+        assertEquals(5, shard1.queryForInt("select count(*) from User"));
+        Map<Long, User> map = db.getByIds(User.class, Arrays.asList(9L, 2L, 5L, 4L, 100L));
+        assertEquals(Arrays.asList(9L, 2L, 5L, 4L), new ArrayList<Long>(map.keySet()));
+        assertEquals(4, db.deleteByIds(User.class, map.keySet()));
+        assertEquals(5, db.queryForInt("select count(*) from User"));
+    }
+
+    @Test
+    public void testQueryForPage() {
+        for (long id=1; id<=9; id++) {
+            db.create(new User(id, "user-" + (id % 3), "password"));
+        }
+        Page<User> page = db.queryForPage(User.class, null, 4);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), ids(page.getList()));
+        page = db.queryForPage(User.class, page.getNext(), 4);
+        assertEquals(Arrays.asList(5L, 6L, 7L, 8L), ids(page.getList()));
+        page = db.queryForPage(User.class, page.getNext(), 4);
+        assertEquals(Arrays.asList(9L), ids(page.getList()));
+        assertFalse(page.hasNext());
+        page = db.queryForPage(User.class, null, "name desc", null, 4);
+        assertEquals(Arrays.asList(8L, 5L, 2L, 7L), ids(page.getList()));
+    }
+
+    @Test
+    public void testQueryForLimitedList() {
+        for (long id=1; id<=9; id++) {
+            db.create(new User(id, "user-" + (id % 3), "password"));
+        }
+        assertEquals(Arrays.asList(3L, 4L, 5L), ids(db.<User>queryForLimitedList("select * from User order by id", 2, 3)));
+        assertEquals(Arrays.asList(2L, 7L, 4L, 1L), ids(db.<User>queryForLimitedList("select * from User u where u.id>? order by u.name desc, id desc", 2, 4, 0)));
+        try {
+            db.queryForLimitedList("select * from User order by length(name)", 0, 3);
+            fail("Ordered by expression.");
+        }
+        catch (DbException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNullId() {
+        try {
+            db.deleteByIds(User.class, Arrays.asList(1L, null));
+            fail("Expect exception.");
+        }
+        catch (DbException e) {
+            assertTrue(e.getMessage().contains(User.class.getName()));
+        }
+    }
+
+    static List<Long> ids(List<User> users) {
+        List<Long> ids = new ArrayList<Long>();
+        for (User user : users) {
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,57 @@
+package org.expressme.simplejdbc;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SqlInfoTest {
+
+    @Test
+    public void testSelect() {
+        SqlInfo info = SqlInfo.parse("select * from User where name=?");
+        assertTrue(info.isSelect());
+        assertEquals("User", info.tableName);
+        info = SqlInfo.parse("SELECT u.* FROM `User` u WHERE u.name='from Job'");
+        assertTrue(info.isSelect());
+        assertEquals("User", info.tableName);
+        assertEquals(Arrays.asList("User"), Arrays.asList(info.tableNames));
+    }
+
+    @Test
+    public void testSelectWithJoinsAndSubqueries() {
+        SqlInfo info = SqlInfo.parse("select (select count(*) from Job) c, u.* from test.User as u, Role r inner join Job j on u.id=j.id where u.id in (select id from Admin) order by u.id");
+        assertEquals("User", info.tableName);
+        assertEquals(Arrays.asList("Job", "User", "Role", "Job", "Admin"), Arrays.asList(info.tableNames));
+        info = SqlInfo.parse("select * from (select * from User where age>?) t -- from Job\n limit 10");
+        assertEquals("User", info.tableName);
+        assertEquals(Arrays.asList("User"), Arrays.asList(info.tableNames));
+        assertNull(info.orderBy);
+    }
+
+    @Test
+    public void testOrderBy() {
+        SqlInfo info = SqlInfo.parse("select * from User u where u.id in (select id from Job order by id) order by u.`name` DESC, id asc, length(passwd) limit 10 for update");
+        assertEquals(Arrays.asList("name desc", "id", null), Arrays.asList(info.orderBy));
+    }
+
+    @Test
+    public void testUpdate() {
+        SqlInfo info = SqlInfo.parse("update User set passwd=? where id in (select id from Job)");
+        assertEquals(SqlInfo.UPDATE, info.type);
+        assertEquals("User", info.tableName);
+        info = SqlInfo.parse("delete from User where id=?");
+        assertEquals(SqlInfo.DELETE, info.type);
+        assertEquals("User", info.tableName);
+        info = SqlInfo.parse("insert into User (id, name) values (?, ?)");
+        assertEquals(SqlInfo.INSERT, info.type);
+        assertEquals("User", info.tableName);
+        info = SqlInfo.parse("select * from User where id=? for update");
+        assertEquals(SqlInfo.SELECT, info.type);
+        assertEquals("User", info.tableName);
+        assertTrue(info.locking);
+        assertTrue(SqlInfo.parse("select * from User lock in share mode").locking);
+        assertFalse(SqlInfo.parse("select * from User").locking);
+    }
+}